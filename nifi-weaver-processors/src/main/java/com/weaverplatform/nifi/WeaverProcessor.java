@@ -1,14 +1,27 @@
 package com.weaverplatform.nifi;
 
+import com.weaverplatform.nifi.service.WeaverConnectionService;
+import com.weaverplatform.nifi.util.AsyncWeaver;
+import com.weaverplatform.nifi.util.DatasetHandle;
+import com.weaverplatform.nifi.util.DatasetLinker;
+import com.weaverplatform.nifi.util.DatasetObjects;
+import com.weaverplatform.nifi.util.ExistenceCache;
+import com.weaverplatform.nifi.util.LookupCache;
+import com.weaverplatform.nifi.util.PropertyIndex;
+import com.weaverplatform.nifi.util.ProcessorConfig;
+import com.weaverplatform.nifi.util.WeaverPool;
 import com.weaverplatform.nifi.util.WeaverProperties;
+import com.weaverplatform.nifi.util.WeaverScope;
 import com.weaverplatform.sdk.Entity;
-import com.weaverplatform.sdk.EntityNotFoundException;
 import com.weaverplatform.sdk.Weaver;
-import com.weaverplatform.sdk.json.request.ReadPayload;
-import com.weaverplatform.sdk.model.Dataset;
-import com.weaverplatform.sdk.websocket.WeaverSocket;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
-import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.AbstractSessionFactoryProcessor;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessSessionFactory;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
@@ -17,18 +30,21 @@ import org.apache.nifi.util.NiFiProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author Bastiaan Bijl
  */
-public abstract class WeaverProcessor extends AbstractProcessor {
+public abstract class WeaverProcessor extends AbstractSessionFactoryProcessor {
 
   public final List<PropertyDescriptor> descriptors = new ArrayList<>();
   public List<PropertyDescriptor> properties;
@@ -36,11 +52,16 @@ public abstract class WeaverProcessor extends AbstractProcessor {
   public final Set<Relationship> relationshipSet = new HashSet<>();
   public AtomicReference<Set<Relationship>> relationships;
 
-  private static String weaverUrl = null;
-  private static Weaver weaver = null;
-  private static Entity dataset = null;
-  private static Entity datasetObjects = null;
-  private static Entity datasetViews = null;
+  private static final ConcurrentMap<String, WeaverPool> pools = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, WeaverScope> scopes = new ConcurrentHashMap<>();
+
+  private volatile WeaverConnectionService connectionService;
+  private volatile WeaverPool pool;
+  private volatile ProcessorConfig config;
+
+  // The datasets this processor links to, and those the current run of a thread linked to
+  private final Set<DatasetHandle> linkedDatasets = ConcurrentHashMap.newKeySet();
+  private final ThreadLocal<Map<DatasetHandle, DatasetLinker.Run>> runDatasets = ThreadLocal.withInitial(HashMap::new);
 
   public static final Logger logger = LoggerFactory.getLogger(WeaverProcessor.class);
   
@@ -50,76 +71,309 @@ public abstract class WeaverProcessor extends AbstractProcessor {
       .required(false)
       .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
       .build();
+
+  public static final PropertyDescriptor WEAVER_SERVICE = new PropertyDescriptor
+      .Builder().name("Weaver Connection Service")
+      .description("Connection pool to use. If not set, the Weaver URL or else weaver.url " +
+          "from nifi.properties is used.")
+      .required(false)
+      .identifiesControllerService(WeaverConnectionService.class)
+      .build();
+
+  public static final PropertyDescriptor DEFERRED_LINKING = new PropertyDescriptor
+      .Builder().name("Deferred Dataset Linking")
+      .description("If true, new entities are linked to the dataset in bulk by a background " +
+          "task, every weaver.dataset.link.batch entities or weaver.dataset.link.interval " +
+          "milliseconds, and when the processor stops. A FlowFile can then be transferred " +
+          "before its entity is linked. If false, a run waits at its end until its own links are sent.")
+      .required(true)
+      .allowableValues("true", "false")
+      .defaultValue("false")
+      .build();
   
-  
+  public static final PropertyDescriptor DATASET_ATTRIBUTE = new PropertyDescriptor
+      .Builder().name("Dataset Attribute")
+      .description("Look for a FlowFile attribute with the id of the dataset to write to. " +
+          "If not set, or the FlowFile does not have it, weaver.global.dataset from " +
+          "nifi.properties is used.")
+      .required(false)
+      .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+      .build();
+
   @Override
   protected void init(final ProcessorInitializationContext context) {
     descriptors.add(WEAVER);
+    descriptors.add(WEAVER_SERVICE);
   }
-  
-  public static synchronized Weaver getWeaver() {
-    if(weaverUrl == null) {
-      weaverUrl = NiFiProperties.getInstance().get(WeaverProperties.URL).toString();
+
+  /**
+   * Runs a trigger in one session, as AbstractProcessor does. Processors
+   * that commit part of their output early override this one.
+   */
+  @Override
+  public void onTrigger(final ProcessContext context, final ProcessSessionFactory sessionFactory) throws ProcessException {
+    final ProcessSession session = sessionFactory.createSession();
+    try {
+      onTrigger(context, session);
+      session.commit();
+    } catch (final Throwable t) {
+      getLogger().error("{} failed to process due to {}; rolling back session", new Object[]{this, t});
+      session.rollback(true);
+      throw t;
     }
-    if(weaver == null) {
-      weaver = new Weaver("ins:");
-      try {
-        weaver.connect(new WeaverSocket(new URI(weaverUrl)));
-      } catch (URISyntaxException e) {
-        throw new ProcessException(e);
+  }
+
+  public abstract void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException;
+
+  /**
+   * Resolves where the connections come from, so the first trigger does not
+   * have to wait for them.
+   */
+  @OnScheduled
+  public void resolveConnection(final ProcessContext context) {
+    if(context.getProperty(WEAVER_SERVICE).isSet()) {
+      WeaverConnectionService service = context.getProperty(WEAVER_SERVICE).asControllerService(WeaverConnectionService.class);
+      if(!service.isReady()) {
+        throw new ProcessException("Weaver connection service " + service.getIdentifier() + " is not ready");
+      }
+      connectionService = service;
+      pool = null;
+    } else {
+      connectionService = null;
+      if(context.getProperty(WEAVER).isSet()) {
+        pool = getPool(context.getProperty(WEAVER).getValue());
+      } else {
+        pool = getPool(NiFiProperties.getInstance().get(WeaverProperties.URL).toString());
       }
     }
-    return weaver;
   }
 
-  public static synchronized Entity getDatasetObjects() {
+  /**
+   * Reads the properties once, so triggers don't have to.
+   */
+  @OnScheduled
+  public void compileConfig(final ProcessContext context) {
+    config = ProcessorConfig.compile(context);
+  }
 
-    if(datasetObjects != null) {
-      return datasetObjects;
+  /**
+   * The properties as they were when the processor was scheduled.
+   */
+  protected ProcessorConfig config(ProcessContext context) {
+    ProcessorConfig current = config;
+    if(current == null) {
+      current = ProcessorConfig.compile(context);
+      config = current;
     }
+    return current;
+  }
 
-    Weaver weaver = getWeaver();
+  public Weaver getWeaver() {
+    WeaverConnectionService service = connectionService;
+    if(service != null) {
+      return service.getWeaver();
+    }
+    return currentPool().get();
+  }
 
-    if(dataset == null) {
-      String datasetId = NiFiProperties.getInstance().get(WeaverProperties.DATASET).toString();
-      try {
-        logger.info("Getting dataset " + datasetId);
-        dataset = weaver.get(datasetId, new ReadPayload.Opts(1));
-      } catch(EntityNotFoundException e) {
-        dataset = new Dataset(weaver, datasetId).get(datasetId);
+  /**
+   * Same connection as {@link #getWeaver()}, for requests that should not
+   * wait for each other.
+   */
+  public AsyncWeaver getAsyncWeaver() {
+    WeaverConnectionService service = connectionService;
+    if(service != null) {
+      return service.getAsyncWeaver();
+    }
+    return currentPool().getAsync();
+  }
+
+  private WeaverPool currentPool() {
+    WeaverPool current = pool;
+    if(current == null) {
+      current = getPool(NiFiProperties.getInstance().get(WeaverProperties.URL).toString());
+      pool = current;
+    }
+    return current;
+  }
+
+  /**
+   * Processors without a connection service share one pool per url.
+   */
+  private static WeaverPool getPool(String weaverUrl) {
+    return pools.computeIfAbsent(weaverUrl, url -> {
+      int size = intFromNiFiProperties(WeaverProperties.POOL_SIZE, WeaverPool.DEFAULT_SIZE);
+      int window = intFromNiFiProperties(WeaverProperties.WINDOW, AsyncWeaver.DEFAULT_WINDOW);
+      logger.info("Connecting " + size + " Weaver connections to " + url);
+      return new WeaverPool(url, size, window);
+    });
+  }
+
+  protected static int intFromNiFiProperties(String key, int fallback) {
+    Object value = NiFiProperties.getInstance().get(key);
+    return value == null ? fallback : Integer.parseInt(value.toString().trim());
+  }
+
+  public static String defaultDatasetId() {
+    return NiFiProperties.getInstance().get(WeaverProperties.DATASET).toString();
+  }
+
+  /**
+   * The dataset named in the FlowFile attribute set as 'Dataset Attribute',
+   * or else weaver.global.dataset. Only for processors that have the
+   * DATASET_ATTRIBUTE property.
+   */
+  protected String datasetId(ProcessContext context, FlowFile flowFile) {
+    String attribute = config(context).get(DATASET_ATTRIBUTE);
+    if(attribute != null) {
+      String datasetId = flowFile.getAttribute(attribute);
+      if(datasetId != null && !datasetId.isEmpty()) {
+        return datasetId;
       }
     }
+    return defaultDatasetId();
+  }
 
-    if(datasetObjects == null) {
-      datasetObjects = weaver.get(dataset.getRelations().get("objects").getId(), new ReadPayload.Opts(0));
+  /**
+   * The url of the Weaver instance this processor writes to.
+   */
+  protected String weaverUrl() {
+    WeaverConnectionService service = connectionService;
+    if(service != null) {
+      return service.getUrl();
     }
+    return currentPool().getUrl();
+  }
+
+  /**
+   * What this node remembers of the Weaver instance this processor writes
+   * to, shared with the other processors writing there.
+   */
+  protected WeaverScope scope() {
+    return getScope(weaverUrl());
+  }
+
+  private static WeaverScope getScope(String weaverUrl) {
+    return scopes.computeIfAbsent(weaverUrl, url -> new WeaverScope(url,
+        intFromNiFiProperties(WeaverProperties.PROPERTY_INDEX_SIZE, (int) PropertyIndex.DEFAULT_SIZE),
+        intFromNiFiProperties(WeaverProperties.COLLECTIONS_SIZE, 10000),
+        intFromNiFiProperties(WeaverProperties.EXISTENCE_CACHE_SIZE, (int) ExistenceCache.DEFAULT_SIZE),
+        intFromNiFiProperties(WeaverProperties.EXISTENCE_BLOOM_SIZE, (int) ExistenceCache.DEFAULT_BLOOM_SIZE),
+        intFromNiFiProperties(WeaverProperties.LOOKUP_CACHE_SIZE, (int) LookupCache.DEFAULT_SIZE),
+        intFromNiFiProperties(WeaverProperties.LOOKUP_CACHE_TTL, (int) LookupCache.DEFAULT_TTL)));
+  }
+
+  /**
+   * Everything remembered of every Weaver instance, see {@link #scope()}.
+   */
+  protected static Collection<WeaverScope> allScopes() {
+    return scopes.values();
+  }
+
+  /**
+   * The handle of a dataset in the Weaver instance of this processor, read
+   * or created once per node.
+   */
+  public DatasetHandle getDatasetHandle(Weaver weaver, String datasetId) {
+    DatasetHandle handle = scope().getDatasetHandle(weaver, datasetId, intFromNiFiProperties(WeaverProperties.BUCKETS, 0));
+    handle.recheck(weaver, intFromNiFiProperties(WeaverProperties.OBJECTS_RECHECK, DatasetHandle.DEFAULT_RECHECK));
+    return handle;
+  }
+
+  public Entity getDataset(Weaver weaver) {
+    return getDatasetHandle(weaver, defaultDatasetId()).getDataset();
+  }
 
-    return datasetObjects;
+  public Entity getDatasetObjects(Weaver weaver) {
+    return getDatasetLayout(weaver).getCollection();
   }
 
-  public static synchronized Entity getDatasetViews() {
+  /**
+   * The objects of the dataset with their layout, flat or bucketed.
+   */
+  public DatasetObjects getDatasetLayout(Weaver weaver) {
+    return getDatasetHandle(weaver, defaultDatasetId()).getObjects();
+  }
+
+  public Entity getDatasetViews(Weaver weaver) {
+    return getDatasetHandle(weaver, defaultDatasetId()).getViews(weaver);
+  }
+
+  /**
+   * Sends the pending dataset links and forgets the dataset, so it is read
+   * again on next use. For when the objects collection of the dataset was
+   * replaced.
+   */
+  public void forgetDataset(String datasetId) {
+    scope().forgetDataset(datasetId);
+  }
 
-    if(datasetObjects != null) {
-      return datasetObjects;
+  /**
+   * Forgets all datasets of all Weaver instances, see {@link #forgetDataset(String)}.
+   */
+  public static void forgetDataset() {
+    for(WeaverScope scope : scopes.values()) {
+      scope.forgetDatasets();
     }
+  }
 
-    Weaver weaver = getWeaver();
+  /**
+   * Links new entities to the objects of the default dataset, shared by all
+   * processors on this node.
+   */
+  public DatasetLinker.Run getDatasetLinker() {
+    return getDatasetLinker(defaultDatasetId());
+  }
 
-    if(dataset == null) {
-      String datasetId = NiFiProperties.getInstance().get(WeaverProperties.DATASET).toString();
-      try {
-        dataset = weaver.get(datasetId);
-      } catch(EntityNotFoundException e) {
-        new Dataset(weaver, datasetId).get(datasetId);
-        dataset = weaver.get(datasetId);
+  /**
+   * The linker of the dataset, for this run of the calling thread.
+   */
+  public DatasetLinker.Run getDatasetLinker(String datasetId) {
+    AsyncWeaver async = getAsyncWeaver();
+    DatasetHandle handle = getDatasetHandle(async.getWeaver(), datasetId);
+    linkedDatasets.add(handle);
+    return runDatasets.get().computeIfAbsent(handle, used -> used.getLinker(this, async,
+        intFromNiFiProperties(WeaverProperties.LINK_BATCH, DatasetLinker.DEFAULT_BATCH),
+        intFromNiFiProperties(WeaverProperties.LINK_INTERVAL, DatasetLinker.DEFAULT_INTERVAL)).run());
+  }
+
+  /**
+   * Waits for the links this run queued, unless the processor defers them.
+   * Links of other runs are not waited for. Only for processors that have
+   * the DEFERRED_LINKING property.
+   */
+  protected void finishDatasetLinks(ProcessContext context) {
+    Map<DatasetHandle, DatasetLinker.Run> used = runDatasets.get();
+    try {
+      if(!config(context).asBoolean(DEFERRED_LINKING, false)) {
+        for(DatasetLinker.Run run : used.values()) {
+          run.finish();
+        }
       }
+    } finally {
+      used.clear();
     }
+  }
 
-    if(datasetObjects == null) {
-      datasetObjects = weaver.get(dataset.getRelations().get("views").getId(), new ReadPayload.Opts(0));
+  /**
+   * Sends the links of the datasets this processor linked to, and stops
+   * their linkers once no other processor uses them.
+   */
+  @OnStopped
+  public void releaseDatasetLinks() {
+    for(DatasetHandle handle : linkedDatasets) {
+      try {
+        handle.flush();
+      } catch (RuntimeException e) {
+        getLogger().warn("Could not link " + handle.pending() + " entities to dataset " + handle.getId() + ", will retry", e);
+      }
+      try {
+        handle.release(this);
+      } catch (RuntimeException e) {
+        getLogger().warn("Could not link the last entities to dataset " + handle.getId(), e);
+      }
     }
-
-    return datasetObjects;
+    linkedDatasets.clear();
   }
 
   @Override
@@ -0,0 +1,149 @@
+package com.weaverplatform.nifi.individual;
+
+import com.weaverplatform.nifi.WeaverProcessor;
+import com.weaverplatform.nifi.util.AsyncWeaver;
+import com.weaverplatform.nifi.util.DatasetHandle;
+import com.weaverplatform.nifi.util.DatasetLinker;
+import com.weaverplatform.nifi.util.DatasetObjects;
+import com.weaverplatform.nifi.util.WeaverProperties;
+import com.weaverplatform.sdk.ShallowEntity;
+import com.weaverplatform.sdk.Weaver;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Tags({"weaver, dataset, migrate"})
+@CapabilityDescription("Moves the objects of the dataset into a new objects collection with the given number of " +
+    "hash buckets, and links the new collection as the objects of the dataset. Works on flat and bucketed " +
+    "datasets. Runs once per incoming FlowFile. Processors on every node switch to the new collection within " +
+    "weaver.dataset.objects.recheck milliseconds; objects they link into the old one until then are copied too, " +
+    "until none were added for that long.")
+@WritesAttributes({
+    @WritesAttribute(attribute = BucketDataset.COUNT_ATTRIBUTE, description = "Number of objects moved"),
+    @WritesAttribute(attribute = BucketDataset.BUCKETS_ATTRIBUTE, description = "Number of buckets of the new collection")})
+public class BucketDataset extends WeaverProcessor {
+
+  public static final String COUNT_ATTRIBUTE = "weaver.dataset.objects.count";
+  public static final String BUCKETS_ATTRIBUTE = "weaver.dataset.buckets";
+
+  private static final int LINKS_IN_FLIGHT = 1000;
+  private static final long LATE_LINKS_POLL = 1000;
+
+  public static final PropertyDescriptor FAN_OUT = new PropertyDescriptor
+      .Builder().name("Fan Out")
+      .description("Number of buckets to spread the objects of the dataset over.")
+      .required(true)
+      .defaultValue("64")
+      .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+      .build();
+
+  public static final Relationship ORIGINAL = new Relationship.Builder()
+      .name("Original Content")
+      .description("Relationship to send original content to to.")
+      .build();
+
+  @Override
+  protected void init(final ProcessorInitializationContext context) {
+
+    super.init(context);
+
+    descriptors.add(FAN_OUT);
+    descriptors.add(DATASET_ATTRIBUTE);
+    this.properties = Collections.unmodifiableList(descriptors);
+
+    relationshipSet.add(ORIGINAL);
+    this.relationships = new AtomicReference<>(relationshipSet);
+  }
+
+  @Override
+  public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+
+    FlowFile flowFile = session.get();
+    if(flowFile == null) {
+      return;
+    }
+
+    Weaver weaver = getWeaver();
+    AsyncWeaver async = getAsyncWeaver();
+    int fanOut = config(context).asInteger(FAN_OUT);
+
+    // Send what is still queued for the old collection and read it fresh
+    String datasetId = datasetId(context, flowFile);
+    DatasetHandle handle = getDatasetHandle(weaver, datasetId);
+    handle.flush();
+    DatasetObjects old = handle.getObjects().reload(weaver);
+    Map<String, ShallowEntity> members = old.members();
+
+    DatasetObjects bucketed = DatasetObjects.create(weaver, fanOut);
+    copy(async, bucketed, members);
+
+    handle.getDataset().linkEntity("objects", bucketed.getCollection().toShallowEntity());
+    handle.recheck(weaver, 0);
+
+    // Writers link into the old collection until they see the new one, copy what they add
+    long settle = intFromNiFiProperties(WeaverProperties.OBJECTS_RECHECK, DatasetHandle.DEFAULT_RECHECK) +
+        intFromNiFiProperties(WeaverProperties.LINK_INTERVAL, DatasetLinker.DEFAULT_INTERVAL);
+    long quietSince = System.currentTimeMillis();
+    while(System.currentTimeMillis() - quietSince < settle) {
+      Map<String, ShallowEntity> added = old.reload(weaver).members();
+      added.keySet().removeAll(members.keySet());
+      if(added.isEmpty()) {
+        sleep(Math.min(settle, LATE_LINKS_POLL));
+        continue;
+      }
+      copy(async, bucketed, added);
+      members.putAll(added);
+      quietSince = System.currentTimeMillis();
+    }
+
+    getLogger().info("Moved " + members.size() + " objects of dataset " + datasetId + " from " + old.getCollection().getId() +
+        " to " + bucketed.getCollection().getId() + " with " + fanOut + " buckets");
+
+    flowFile = session.putAttribute(flowFile, COUNT_ATTRIBUTE, String.valueOf(members.size()));
+    flowFile = session.putAttribute(flowFile, BUCKETS_ATTRIBUTE, String.valueOf(fanOut));
+    session.transfer(flowFile, ORIGINAL);
+  }
+
+  private static void copy(AsyncWeaver async, DatasetObjects bucketed, Map<String, ShallowEntity> members) {
+    List<CompletableFuture<Void>> links = new ArrayList<>();
+    for(Map.Entry<String, ShallowEntity> member : members.entrySet()) {
+      links.add(async.linkEntity(bucketed.collectionFor(member.getKey()), member.getKey(), member.getValue()));
+      if(links.size() == LINKS_IN_FLIGHT) {
+        awaitAll(links);
+      }
+    }
+    awaitAll(links);
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessException(e);
+    }
+  }
+
+  private static void awaitAll(List<CompletableFuture<Void>> links) {
+    for(CompletableFuture<Void> link : links) {
+      AsyncWeaver.await(link);
+    }
+    links.clear();
+  }
+}
@@ -4,6 +4,7 @@ import com.weaverplatform.sdk.Entity;
 import com.weaverplatform.sdk.Weaver;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
 import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
@@ -25,6 +26,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 
+@SupportsBatching
 @Tags({"weaver, create, entity"})
 @CapabilityDescription("Create entity")
 @SeeAlso({})
@@ -77,6 +79,7 @@ public class CreateEntity extends FlowFileProcessor {
     descriptors.add(NAME_STATIC);
     descriptors.add(NAME_PREFIX);
     descriptors.add(COLLECTION_LIST);
+    descriptors.add(BATCH_SIZE);
     this.properties = Collections.unmodifiableList(descriptors);
 
     this.relationships = new AtomicReference<>(relationshipSet);
@@ -84,41 +87,37 @@ public class CreateEntity extends FlowFileProcessor {
 
   @Override
   public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-    final ProcessorLog log = this.getLogger();
-
     Weaver weaver = getWeaver();
-
-    FlowFile flowFile = session.get();
-    if (flowFile == null) {
-      return;
+    for(FlowFile flowFile : getBatch(context, session)) {
+      onTrigger(context, session, weaver, flowFile);
     }
+  }
+
+  private void onTrigger(final ProcessContext context, final ProcessSession session, Weaver weaver, FlowFile flowFile) throws ProcessException {
+    final ProcessorLog log = this.getLogger();
 
     String id = idFromOptions(context, flowFile, true);
 
     // Create entity by user attribute
     ConcurrentMap<String, String> attributes = new ConcurrentHashMap<>();
     String name = valueFromOptions(context, flowFile, NAME_ATTRIBUTE, NAME_STATIC, "Unnamed");
-    if(context.getProperty(NAME_PREFIX).isSet()) {
-      name = context.getProperty(NAME_PREFIX).getValue() + name;
+    if(config(context).isSet(NAME_PREFIX)) {
+      name = config(context).get(NAME_PREFIX) + name;
     }
     attributes.put("name", name);
 
     
-    String entityType = context.getProperty(ENTITY_TYPE).getValue();
+    String entityType = config(context).get(ENTITY_TYPE);
 
     Entity individual = weaver.add(attributes, entityType, id);
     
-    if(context.getProperty(COLLECTION_LIST).isSet()) {
-      String[] list = context.getProperty(COLLECTION_LIST).getValue().split(",");
-      for(int i = 0; i<list.length; i++) {
-        String collectionName = list[i].trim();
-        Entity collection = weaver.collection();
-        individual.linkEntity(collectionName, collection.toShallowEntity());
-      }
+    for(String collectionName : config(context).asList(COLLECTION_LIST)) {
+      Entity collection = weaver.collection();
+      individual.linkEntity(collectionName, collection.toShallowEntity());
     }
 
-    if(context.getProperty(ATTRIBUTE_NAME_FOR_ID).isSet()) {
-      String attributeNameForId = context.getProperty(ATTRIBUTE_NAME_FOR_ID).getValue();
+    if(config(context).isSet(ATTRIBUTE_NAME_FOR_ID)) {
+      String attributeNameForId = config(context).get(ATTRIBUTE_NAME_FOR_ID);
       flowFile = session.putAttribute(flowFile, attributeNameForId, id);
     }
     session.transfer(flowFile, ORIGINAL);
@@ -1,10 +1,14 @@
 package com.weaverplatform.nifi.individual;
 
+import com.weaverplatform.nifi.util.AsyncWeaver;
+import com.weaverplatform.nifi.util.DatasetLinker;
+import com.weaverplatform.nifi.util.ExistenceCache;
 import com.weaverplatform.sdk.*;
 import com.weaverplatform.sdk.json.request.ReadPayload;
 import com.weaverplatform.sdk.json.request.UpdateEntityAttribute;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
 import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
@@ -19,11 +23,18 @@ import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 
+@SupportsBatching
 @Tags({"weaver, create, individual"})
 @CapabilityDescription("Create individual object")
 @SeeAlso({})
@@ -79,9 +90,6 @@ public class CreateIndividual extends FlowFileProcessor {
       .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
       .build();
 
-  private Entity individual;
-  private Entity propertiesCollection;
-
   @Override
   protected void init(final ProcessorInitializationContext context) {
     
@@ -93,6 +101,10 @@ public class CreateIndividual extends FlowFileProcessor {
     descriptors.add(IS_ADDIFYING);
     descriptors.add(IS_UPDATING);
     descriptors.add(DO_NOT_CHECK_EXISTENCE);
+    descriptors.add(BATCH_SIZE);
+    descriptors.add(DEFERRED_LINKING);
+    descriptors.add(DATASET_ATTRIBUTE);
+    descriptors.add(SINGLE_WRITER);
     this.properties = Collections.unmodifiableList(descriptors);
     this.relationships = new AtomicReference<>(relationshipSet);
   }
@@ -100,93 +112,192 @@ public class CreateIndividual extends FlowFileProcessor {
   @Override
   public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
     final ProcessorLog log = this.getLogger();
-    
-    Weaver weaver = getWeaver();
 
-    FlowFile flowFile = session.get();
-    if (flowFile == null) {
+    List<FlowFile> flowFiles = getBatch(context, session);
+    if (flowFiles.isEmpty()) {
       return;
     }
 
-    Entity datasetObjects = getDatasetObjects();
+    AsyncWeaver async = getAsyncWeaver();
 
-    String id = idFromOptions(context, flowFile, true);
-    String name = getName(context, flowFile);
-    String source = getSource(context, flowFile);
+    boolean doNotCheckExistence = config(context).asBoolean(DO_NOT_CHECK_EXISTENCE, false);
 
-    if(id.equals("") || id.contains(" ") || id == null) {
+    // Collect what should be written, the last FlowFile for an individual wins, so
+    // a burst of updates to one individual within a batch becomes one update
+    Map<String, Individual> individuals = new LinkedHashMap<>();
+    Map<FlowFile, String> ids = new LinkedHashMap<>();
+    for(FlowFile flowFile : flowFiles) {
 
-      //Write flowfile to error heap, and send it through the flow without any other processing
-      new FlowErrorCatcher(context, session, this.getIdentifier()).dump(flowFile);
-      //log.warn("Subject ("+(subjectId.equals("") ? 'X' : "") + "), object ("+(objectId.equals("") ? 'X' : "") + "), or predicate ("+(predicate.equals("") ? 'X' : "") + ") was empty");
-      session.transfer(flowFile, ORIGINAL);
-      return;
-    }
+      String id = idFromOptions(context, flowFile, true);
 
-    // Should we be prepared for the possibility that this entity has already been created.
-    boolean isAddifying = !context.getProperty(IS_ADDIFYING).isSet() || context.getProperty(IS_ADDIFYING).asBoolean();
-    boolean doNotCheckExistence = context.getProperty(DO_NOT_CHECK_EXISTENCE).asBoolean();
-    boolean isUpdating =  !context.getProperty(IS_UPDATING).isSet()  || context.getProperty(IS_UPDATING).asBoolean();
+      if(id == null || id.equals("") || id.contains(" ")) {
 
-    // Create without checking for entities prior existence
-    if(doNotCheckExistence) {
+        //Write flowfile to error heap, and send it through the flow without any other processing
+        new FlowErrorCatcher(context, session, this.getIdentifier()).dump(flowFile);
+        session.transfer(flowFile, ORIGINAL);
+        continue;
+      }
 
-      ConcurrentMap<String, String> attributes = new ConcurrentHashMap<>();
-      attributes.put("name", name);
-      attributes.put("source", source);
+      individuals.put(id, new Individual(id, getName(context, flowFile), getSource(context, flowFile), datasetId(context, flowFile)));
+      ids.put(flowFile, id);
+    }
 
-      createIndividual(id, attributes);
+    // Check the existence of all individuals that aren't known in one round
+    ExistenceCache existence = existenceCache();
+    boolean singleWriter = config(context).asBoolean(SINGLE_WRITER, false);
+    Map<String, Map<String, String>> known = new HashMap<>();
+    Map<String, CompletableFuture<Entity>> lookups = new HashMap<>();
+    if(!doNotCheckExistence) {
+      for(String id : individuals.keySet()) {
+        ExistenceCache.Answer answer = existence.lookup(id, singleWriter);
+        if(answer == ExistenceCache.Answer.EXISTS) {
+          Map<String, String> attributes = existence.attributes(id);
+          if(attributes != null) {
+            known.put(id, attributes);
+          } else {
+            answer = ExistenceCache.Answer.UNKNOWN;
+          }
+        }
+        session.adjustCounter(counterName(answer), 1, false);
+        if(answer == ExistenceCache.Answer.UNKNOWN) {
+          lookups.put(id, async.get(id, new ReadPayload.Opts(1)));
+        }
+      }
+    }
 
-      // Attach to dataset
-      datasetObjects.linkEntity(id, individual.toShallowEntity());
+    List<CompletableFuture<?>> writes = new ArrayList<>();
+    long unchanged = 0;
+    for(Individual individual : individuals.values()) {
 
-      // Check to see whether it exists before creation
-    } else {
+      // The attributes of the individual if it exists
+      Map<String, String> existing = known.get(individual.id);
+      String type = EntityType.INDIVIDUAL;
+      if(lookups.containsKey(individual.id)) {
+        try {
+          Entity entity = AsyncWeaver.await(lookups.get(individual.id));
+          existing = entity.getAttributes();
+          type = entity.getType();
+          existence.present(individual.id, existing);
+        } catch(EntityNotFoundException e) {
+          existing = null;
+        }
+      }
 
-      try {
-        individual = weaver.get(id, new ReadPayload.Opts(1));
-        if (!"".equals(name)) {
+      // Create and attach to dataset
+      if(existing == null) {
+        DatasetLinker.Run linker = getDatasetLinker(individual.dataset);
+        writes.add(createOnce(async, linker, existence, individual));
 
-          // Check if name attribute is set
-          if (!individual.getAttributes().containsKey("name") || !name.equals(individual.getAttributes().get("name"))) {
-            weaver.updateEntityAttribute(new UpdateEntityAttribute(new ShallowEntity(individual.getId(), individual.getType()), "name", new ShallowValue(name, "")));
-            weaver.updateEntityAttribute(new UpdateEntityAttribute(new ShallowEntity(individual.getId(), individual.getType()), "source", new ShallowValue(source, "")));
+      // Check if name attribute is set
+      } else if(!"".equals(individual.name)) {
+        if (!existing.containsKey("name") || !individual.name.equals(existing.get("name"))) {
+          ShallowEntity shallow = new ShallowEntity(individual.id, type);
+          Map<String, String> updated = new HashMap<>(existing);
+
+          // Only write the attributes that changed, each as its own request so they go out together
+          List<CompletableFuture<?>> updates = new ArrayList<>();
+          for(Map.Entry<String, String> attribute : individual.attributes().entrySet()) {
+            if(attribute.getValue().equals(existing.get(attribute.getKey()))) {
+              unchanged++;
+              continue;
+            }
+            updated.put(attribute.getKey(), attribute.getValue());
+            updates.add(async.submit(w -> {
+              w.updateEntityAttribute(new UpdateEntityAttribute(shallow, attribute.getKey(), new ShallowValue(attribute.getValue(), "")));
+              return null;
+            }));
           }
+          writes.add(CompletableFuture.allOf(updates.toArray(new CompletableFuture<?>[updates.size()]))
+              .thenRun(() -> existence.present(individual.id, updated)));
+        } else {
+          unchanged += individual.attributes().size();
         }
-      } catch(EntityNotFoundException e) {
-
-        ConcurrentMap<String, String> attributes = new ConcurrentHashMap<>();
-        attributes.put("name", name);
-        attributes.put("source", source);
+      }
+    }
+    session.adjustCounter("Attributes unchanged", unchanged, false);
+    for(CompletableFuture<?> write : writes) {
+      AsyncWeaver.await(write);
+    }
+    finishDatasetLinks(context);
 
-        createIndividual(id, attributes);
+    for(Map.Entry<FlowFile, String> entry : ids.entrySet()) {
+      FlowFile flowFile = entry.getKey();
+      if(config(context).isSet(ATTRIBUTE_NAME_FOR_ID)) {
+        String attributeNameForId = config(context).get(ATTRIBUTE_NAME_FOR_ID);
+        flowFile = session.putAttribute(flowFile, attributeNameForId, entry.getValue());
+      }
+      session.transfer(flowFile, ORIGINAL);
+    }
+  }
 
-        // Attach to dataset
-        datasetObjects.linkEntity(id, individual.toShallowEntity());
+  /**
+   * Creates the individual unless a concurrent task on this node already
+   * did, in which case that task also linked it. The guard is taken on the
+   * calling thread, only the creation is sent as a request.
+   */
+  private CompletableFuture<Entity> createOnce(AsyncWeaver async, DatasetLinker.Run linker, ExistenceCache existence, Individual individual) {
+    try {
+      if(locks().request("individual", individual.id)) {
+        return CompletableFuture.completedFuture(null);
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessException(e);
     }
-    if(context.getProperty(ATTRIBUTE_NAME_FOR_ID).isSet()) {
-      String attributeNameForId = context.getProperty(ATTRIBUTE_NAME_FOR_ID).getValue();
-      flowFile = session.putAttribute(flowFile, attributeNameForId, id);
+
+    CompletableFuture<Entity> request;
+    try {
+      request = async.submit(w -> createIndividual(w, individual.id, individual.attributes()));
+    } catch (RuntimeException e) {
+      locks().cancel("individual", individual.id);
+      throw e;
     }
-    session.transfer(flowFile, ORIGINAL);
+    return request.whenComplete((created, error) -> {
+      if(error != null) {
+        locks().cancel("individual", individual.id);
+        return;
+      }
+      locks().release("individual", individual.id);
+      linker.link(individual.id, created.toShallowEntity());
+      existence.present(individual.id, individual.attributes());
+    });
   }
 
-  private void createIndividual(String id, ConcurrentMap<String, String> attributes) {
-    Weaver weaver = getWeaver();
-
-    individual = weaver.add(attributes, EntityType.INDIVIDUAL, id);
-    propertiesCollection = weaver.collection();
+  private Entity createIndividual(Weaver weaver, String id, ConcurrentMap<String, String> attributes) {
+    Entity individual = weaver.add(attributes, EntityType.INDIVIDUAL, id);
+    Entity propertiesCollection = weaver.collection();
     individual.linkEntity("properties", propertiesCollection.toShallowEntity());
+    return individual;
   }
 
   private String getName(ProcessContext context, FlowFile flowFile) {
     String name = valueFromOptions(context, flowFile, NAME_ATTRIBUTE, NAME_STATIC, "Unnamed");
 
     // Check for prefix
-    if(context.getProperty(NAME_PREFIX).isSet()) {
-      name = context.getProperty(NAME_PREFIX).getValue() + name;
+    if(config(context).isSet(NAME_PREFIX)) {
+      name = config(context).get(NAME_PREFIX) + name;
     }
     return name;
   }
+
+  private static class Individual {
+    final String id;
+    final String name;
+    final String source;
+    final String dataset;
+
+    Individual(String id, String name, String source, String dataset) {
+      this.id = id;
+      this.name = name;
+      this.source = source;
+      this.dataset = dataset;
+    }
+
+    ConcurrentMap<String, String> attributes() {
+      ConcurrentMap<String, String> attributes = new ConcurrentHashMap<>();
+      attributes.put("name", name);
+      attributes.put("source", source);
+      return attributes;
+    }
+  }
 }
@@ -1,10 +1,12 @@
 package com.weaverplatform.nifi.individual;
 
-import com.weaverplatform.nifi.util.LockRegistry;
+import com.weaverplatform.nifi.util.AsyncWeaver;
+import com.weaverplatform.nifi.util.DatasetLinker;
 import com.weaverplatform.sdk.*;
 import com.weaverplatform.sdk.json.request.ReadPayload;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
 import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
@@ -23,10 +25,12 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 
+@SupportsBatching
 @Tags({"weaver, create, individualproperty"})
 @CapabilityDescription("Creates an individual property")
 @SeeAlso({})
@@ -118,6 +122,9 @@ public class CreateIndividualProperty extends PropertyProcessor {
     descriptors.add(IS_ADDIFYING);
     descriptors.add(IS_UPDATING);
     descriptors.add(PREVENT_DUPLICATION);
+    descriptors.add(DEFERRED_LINKING);
+    descriptors.add(DATASET_ATTRIBUTE);
+    descriptors.add(BATCH_SIZE);
     this.properties = Collections.unmodifiableList(descriptors);
 
 
@@ -126,16 +133,16 @@ public class CreateIndividualProperty extends PropertyProcessor {
 
   @Override
   public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-    final ProcessorLog log = this.getLogger();
-
     Weaver weaver = getWeaver();
-
-    FlowFile flowFile = session.get();
-    if (flowFile == null) {
-      return;
+    for(FlowFile flowFile : getBatch(context, session)) {
+      onTrigger(context, session, weaver, flowFile);
     }
+    finishDatasetLinks(context);
+  }
+
+  private void onTrigger(final ProcessContext context, final ProcessSession session, Weaver weaver, FlowFile flowFile) throws ProcessException {
+    final ProcessorLog log = this.getLogger();
 
-    String id = idFromOptions(context, flowFile, true);
     String source = getSource(context, flowFile);
     
     String subjectId = valueFromOptions(context, flowFile, SUBJECT_ATTRIBUTE, SUBJECT_STATIC, null);
@@ -153,53 +160,85 @@ public class CreateIndividualProperty extends PropertyProcessor {
       return;
     }
 
+    String propertyHash = propertyHash(subjectId, predicate, objectId, source);
+    String id = propertyId(context, flowFile, propertyHash);
+    boolean hashIds = hashesPropertyIds(context);
+
     // Should we be prepared for the possibility that this entity has already been created.
-    boolean isAddifying =         !context.getProperty(IS_ADDIFYING).isSet() || context.getProperty(IS_ADDIFYING).asBoolean();
-    boolean isUpdating =          !context.getProperty(IS_UPDATING).isSet()  || context.getProperty(IS_UPDATING).asBoolean();
-//    boolean preventDuplication =  !context.getProperty(PREVENT_DUPLICATION).isSet()  || context.getProperty(PREVENT_DUPLICATION).asBoolean();
+    boolean isAddifying =         config(context).asBoolean(IS_ADDIFYING, true);
+    boolean isUpdating =          config(context).asBoolean(IS_UPDATING, true);
+//    boolean preventDuplication =  config(context).asBoolean(PREVENT_DUPLICATION, true);
     boolean preventDuplication = true;
 
     // Create without checking for entities prior existence
+    AsyncWeaver async = getAsyncWeaver();
     Entity subjectEntity, objectEntity;
     boolean createdSubject = false;
     if(!isAddifying) {
-      // Get the parent object from weaver
-      subjectEntity = weaver.get(subjectId, new ReadPayload.Opts(1));
+      // Get the parent object and the object from weaver at the same time
+      CompletableFuture<Entity> subjectRequest = async.get(subjectId, new ReadPayload.Opts(1));
+      CompletableFuture<Entity> objectRequest = async.get(objectId, new ReadPayload.Opts(0));
 
-      // Find the object
-      objectEntity = weaver.get(objectId, new ReadPayload.Opts(0));
+      subjectEntity = AsyncWeaver.await(subjectRequest);
+      objectEntity = AsyncWeaver.await(objectRequest);
       
       
     } else {
-      Entity datasetObjects = getDatasetObjects();
+      DatasetLinker.Run linker = getDatasetLinker(datasetId(context, flowFile));
+
+      // Look up the parent object and the object at the same time, once if they are the same
+      boolean selfReference = subjectId.equals(objectId);
+      CompletableFuture<Entity> subjectRequest = async.get(subjectId);
+      CompletableFuture<Entity> objectRequest = selfReference ? subjectRequest : async.get(objectId, new ReadPayload.Opts(0));
+
+      ConcurrentMap<String, String> attributes = new ConcurrentHashMap<>();
+      attributes.put("source", source);
 
-      // Get the parent object from weaver
+      CompletableFuture<Entity> subjectCreation = null;
       try {
-        subjectEntity = weaver.get(subjectId);
+        subjectEntity = AsyncWeaver.await(subjectRequest);
       } catch (EntityNotFoundException e) {
-        //logger.info("not found: " +subjectId);
-
-        createdSubject = true;
-        ConcurrentMap<String, String> attributes = new ConcurrentHashMap<>();
-        attributes.put("source", source);
-        subjectEntity = createIndividual(subjectId, attributes);
-        datasetObjects.linkEntity(id, subjectEntity.toShallowEntity());
+        subjectEntity = null;
+        subjectCreation = createIndividualOnce(async, linker, subjectId, attributes);
       }
 
-      // Find the object
+      CompletableFuture<Entity> objectCreation = null;
       try {
-        objectEntity = weaver.get(objectId, new ReadPayload.Opts(0));
+        objectEntity = AsyncWeaver.await(objectRequest);
       } catch (EntityNotFoundException e) {
-        ConcurrentMap<String, String> attributes = new ConcurrentHashMap<>();
-        attributes.put("source", source);
-        objectEntity = createIndividual(objectId, attributes);
-        datasetObjects.linkEntity(id, objectEntity.toShallowEntity());
+        objectEntity = null;
+        objectCreation = selfReference ? subjectCreation : createIndividualOnce(async, linker, objectId, attributes);
+      }
+
+      // Null if a concurrent task created it, then read what it created
+      if(subjectCreation != null) {
+        subjectEntity = AsyncWeaver.await(subjectCreation);
+        createdSubject = subjectEntity != null;
+        if(subjectEntity == null) {
+          subjectEntity = weaver.get(subjectId, new ReadPayload.Opts(1));
+        }
+      }
+      if(objectCreation != null) {
+        objectEntity = selfReference ? subjectEntity : AsyncWeaver.await(objectCreation);
+        if(objectEntity == null) {
+          objectEntity = weaver.get(objectId, new ReadPayload.Opts(0));
+        }
       }
     }
 
-    if((preventDuplication || isUpdating) && !createdSubject) {
+    if(hashIds) {
+
+      // The id tells whether the property exists, a new subject can't have it yet
+      Entity subject = subjectEntity, object = objectEntity;
+      boolean newSubject = createdSubject;
+      createOnce(context, propertyHash, () -> {
+        if(newSubject || !exists(weaver, id)) {
+          createIndividualProperty(weaver, id, subject, predicate, object, source);
+        }
+      });
+    } else if((preventDuplication || isUpdating) && !createdSubject) {
       
-      Map<String,Entity> existingProperties = getProperty(weaver, subjectEntity, predicate);
+      Map<String,String> existingProperties = getProperty(weaver, subjectEntity, predicate);
 
       if (objectEntity.getId().equals("lib:Afsluitboom")){
         //logger.info("subject: " +subjectEntity.getId());
@@ -207,35 +246,21 @@ public class CreateIndividualProperty extends PropertyProcessor {
         //logger.info("source: "    +source);
       }
       
-      if(existingProperties != null){
-        //logger.info("New: " + objectEntity.getId());
-
-        boolean exactSameObject = existingProperties.containsKey(objectEntity.getId());
-        //logger.info("Same object: " + exactSameObject);
-        
-        if(!exactSameObject){
-          createNewProperty(weaver, id, subjectEntity, predicate, objectEntity, source);
-        } else {
-          //logger.info("THE SAME! not doing anything");
-        }
-      }
-      else {
-        String propertyHash = subjectEntity.getId()+predicate+objectEntity.getId()+source;
-        try {
-          if(!LockRegistry.request("created", propertyHash)) {
-            createNewProperty(weaver, id, subjectEntity, predicate, objectEntity, source);
-            LockRegistry.release("created", propertyHash);
-          }
-        } catch (InterruptedException e) {
-          throw new ProcessException(e);
-        }
+      boolean exactSameObject = existingProperties != null && existingProperties.containsKey(objectEntity.getId());
+      //logger.info("Same object: " + exactSameObject);
+
+      if(!exactSameObject){
+        Entity subject = subjectEntity, object = objectEntity;
+        createOnce(context, propertyHash, () -> createIndividualProperty(weaver, id, subject, predicate, object, source));
+      } else {
+        //logger.info("THE SAME! not doing anything");
       }
     } else {
-      createNewProperty(weaver, id, subjectEntity, predicate, objectEntity, source);
+      createIndividualProperty(weaver, id, subjectEntity, predicate, objectEntity, source);
     }
 
-    if (context.getProperty(ATTRIBUTE_NAME_FOR_ID).isSet()) {
-      String attributeNameForId = context.getProperty(ATTRIBUTE_NAME_FOR_ID).getValue();
+    if (config(context).isSet(ATTRIBUTE_NAME_FOR_ID)) {
+      String attributeNameForId = config(context).get(ATTRIBUTE_NAME_FOR_ID);
       flowFile = session.putAttribute(flowFile, attributeNameForId, id);
     }
     session.transfer(flowFile, ORIGINAL);
@@ -252,43 +277,4 @@ public class CreateIndividualProperty extends PropertyProcessor {
       .expressionLanguageSupported(false)
       .build();
   }
-
-  private Entity createIndividual(String id, ConcurrentMap<String, String> attributes) {
-    Weaver weaver = getWeaver();
-
-    Entity individual = weaver.add(attributes, EntityType.INDIVIDUAL, id);
-
-    Entity entityProperties = weaver.collection();
-    individual.linkEntity("properties", entityProperties.toShallowEntity());
-
-    Entity entityAnnotations = weaver.collection();
-    individual.linkEntity("annotations", entityAnnotations.toShallowEntity());
-
-    return individual;
-  }
-
-  private void createNewProperty(Weaver weaver, String id, Entity subjectEntity, String predicate, Entity objectEntity, String source) {
-    ConcurrentMap<String, String> entityAttributes = new ConcurrentHashMap<>();
-    entityAttributes.put("source", source);
-
-    ConcurrentMap<String, ShallowEntity> relations = new ConcurrentHashMap<>();
-    relations.put("subject", subjectEntity.toShallowEntity());
-    relations.put("object", objectEntity.toShallowEntity());
-    relations.put("predicate", new ShallowEntity(predicate, "$PREDICATE"));
-
-    Entity individualProperty = weaver.add(entityAttributes, EntityType.INDIVIDUAL_PROPERTY, id, relations);
-
-    // Fetch parent collection
-    try {
-      ShallowEntity shallowCollection = subjectEntity.getRelations().get("properties");
-      Entity entityProperties = weaver.get(shallowCollection.getId(), new ReadPayload.Opts(0));
-
-      // Link individual to collection
-      entityProperties.linkEntity(individualProperty.getId(), individualProperty.toShallowEntity());
-    }
-    catch(NullPointerException e){
-      throw new ProcessException("Subject entity has no properties, id is: " + subjectEntity.getId());
-    }
-
-  }
-}
\ No newline at end of file
+}
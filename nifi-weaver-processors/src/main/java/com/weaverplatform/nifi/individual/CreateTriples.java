@@ -0,0 +1,404 @@
+package com.weaverplatform.nifi.individual;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.weaverplatform.nifi.util.AsyncWeaver;
+import com.weaverplatform.nifi.util.DatasetLinker;
+import com.weaverplatform.sdk.Entity;
+import com.weaverplatform.sdk.EntityNotFoundException;
+import com.weaverplatform.sdk.Weaver;
+import com.weaverplatform.sdk.json.request.ReadPayload;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Creates the properties of all triples in the content of a FlowFile, one
+ * triple per line. The content is read as a stream and written in batches,
+ * so the size of the FlowFile does not matter for memory.
+ *
+ * Triples are deduplicated like in CreateIndividualProperty and
+ * CreateValueProperty: a property is only created if its subject does not
+ * already have it.
+ */
+@SupportsBatching
+@Tags({"weaver, create, triples, bulk"})
+@CapabilityDescription("Creates the individual and value properties of all triples in the " +
+    "content, as CSV (subject,predicate,object[,type]) or JSON lines " +
+    "({\"subject\", \"predicate\", \"object\", \"type\"}), one triple per line.")
+@SeeAlso({CreateIndividualProperty.class, CreateValueProperty.class})
+@WritesAttributes({
+    @WritesAttribute(attribute=CreateTriples.COUNT_ATTRIBUTE, description="Number of triples read"),
+    @WritesAttribute(attribute=CreateTriples.SKIPPED_ATTRIBUTE, description="Number of lines that were not a valid triple")})
+public class CreateTriples extends PropertyProcessor {
+
+  public static final String CSV = "csv";
+  public static final String JSON_LINES = "json-lines";
+
+  public static final String INDIVIDUAL = "individual";
+  public static final String VALUE = "value";
+
+  public static final String COUNT_ATTRIBUTE = "weaver.triples.count";
+  public static final String SKIPPED_ATTRIBUTE = "weaver.triples.skipped";
+
+  public static final PropertyDescriptor FORMAT = new PropertyDescriptor
+      .Builder().name("Format")
+      .description("Format of the lines in the content.")
+      .required(true)
+      .allowableValues(CSV, JSON_LINES)
+      .defaultValue(CSV)
+      .build();
+
+  public static final PropertyDescriptor SKIP_HEADER = new PropertyDescriptor
+      .Builder().name("Skip Header Line")
+      .description("Skip the first line of the content.")
+      .required(true)
+      .allowableValues("true", "false")
+      .defaultValue("false")
+      .build();
+
+  public static final PropertyDescriptor DEFAULT_TYPE = new PropertyDescriptor
+      .Builder().name("Default Type")
+      .description("Type of a triple that has none. The object of an individual triple is " +
+          "the id of an individual, the object of a value triple is its value.")
+      .required(true)
+      .allowableValues(INDIVIDUAL, VALUE)
+      .defaultValue(INDIVIDUAL)
+      .build();
+
+  public static final PropertyDescriptor IS_ADDIFYING = new PropertyDescriptor
+      .Builder().name("Is Addifying?")
+      .description("If this attribute is set, the object or subject entity will be " +
+          "created if it does not already exist. (leave this field empty to disallow " +
+          "this behaviour)")
+      .required(false)
+      .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
+      .build();
+
+  public static final PropertyDescriptor TRIPLE_BATCH_SIZE = new PropertyDescriptor
+      .Builder().name("Triple Batch Size")
+      .description("Number of triples read before they are written. The subjects and objects " +
+          "of a batch are looked up at once, after which all its properties are written at once.")
+      .required(true)
+      .defaultValue("1000")
+      .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+      .build();
+
+  private static final Gson gson = new Gson();
+
+  @Override
+  protected void init(final ProcessorInitializationContext context) {
+
+    super.init(context);
+
+    // Ids come from the triples, not from the FlowFile
+    descriptors.remove(INDIVIDUAL_ATTRIBUTE);
+    descriptors.remove(INDIVIDUAL_STATIC);
+    descriptors.remove(ATTRIBUTE_NAME_FOR_ID);
+
+    descriptors.add(FORMAT);
+    descriptors.add(SKIP_HEADER);
+    descriptors.add(DEFAULT_TYPE);
+    descriptors.add(IS_ADDIFYING);
+    descriptors.add(TRIPLE_BATCH_SIZE);
+    descriptors.add(BATCH_SIZE);
+    descriptors.add(DEFERRED_LINKING);
+    descriptors.add(DATASET_ATTRIBUTE);
+    this.properties = Collections.unmodifiableList(descriptors);
+
+    this.relationships = new AtomicReference<>(relationshipSet);
+  }
+
+  @Override
+  public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+    for(FlowFile flowFile : getBatch(context, session)) {
+      onTrigger(context, session, flowFile);
+    }
+  }
+
+  private void onTrigger(final ProcessContext context, final ProcessSession session, FlowFile flowFile) throws ProcessException {
+
+    String source = getSource(context, flowFile);
+    boolean json = JSON_LINES.equals(config(context).get(FORMAT));
+    boolean skipHeader = config(context).asBoolean(SKIP_HEADER, false);
+    String defaultType = config(context).get(DEFAULT_TYPE);
+    int batchSize = config(context).asInteger(TRIPLE_BATCH_SIZE);
+
+    // Should we be prepared for the possibility that this entity has already been created.
+    boolean isAddifying = config(context).asBoolean(IS_ADDIFYING, true);
+
+    AsyncWeaver async = getAsyncWeaver();
+    DatasetLinker.Run linker = isAddifying ? getDatasetLinker(datasetId(context, flowFile)) : null;
+
+    long[] count = new long[1];
+    long[] skipped = new long[1];
+    session.read(flowFile, in -> {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+      List<Triple> batch = new ArrayList<>();
+      boolean first = true;
+      String line;
+      while((line = reader.readLine()) != null) {
+        if(first && skipHeader) {
+          first = false;
+          continue;
+        }
+        first = false;
+        if(line.trim().isEmpty()) {
+          continue;
+        }
+
+        Triple triple = json ? parseJson(line, defaultType) : parseCsv(line, defaultType);
+        if(triple == null) {
+          skipped[0]++;
+          continue;
+        }
+
+        batch.add(triple);
+        count[0]++;
+        if(batch.size() == batchSize) {
+          write(context, async, linker, batch, source);
+          batch.clear();
+        }
+      }
+      if(!batch.isEmpty()) {
+        write(context, async, linker, batch, source);
+      }
+    });
+
+    if(skipped[0] > 0) {
+      getLogger().warn("Skipped " + skipped[0] + " lines that were not a valid triple in " + flowFile);
+    }
+
+    flowFile = session.putAttribute(flowFile, COUNT_ATTRIBUTE, String.valueOf(count[0]));
+    flowFile = session.putAttribute(flowFile, SKIPPED_ATTRIBUTE, String.valueOf(skipped[0]));
+    session.transfer(flowFile, ORIGINAL);
+  }
+
+  /**
+   * Writes one batch: looks up all subjects and objects at once, creates
+   * the missing ones if addifying, and then writes the properties of every
+   * subject at once.
+   */
+  private void write(ProcessContext context, AsyncWeaver async, DatasetLinker.Run linker, List<Triple> batch, String source) {
+
+    // Look up every distinct individual once
+    Map<String, CompletableFuture<Entity>> lookups = new LinkedHashMap<>();
+    Map<String, List<Triple>> bySubject = new LinkedHashMap<>();
+    for(Triple triple : batch) {
+      lookups.computeIfAbsent(triple.subject, id -> async.get(id, new ReadPayload.Opts(1)));
+      if(triple.isIndividual()) {
+        lookups.computeIfAbsent(triple.object, id -> async.get(id, new ReadPayload.Opts(0)));
+      }
+      bySubject.computeIfAbsent(triple.subject, id -> new ArrayList<>()).add(triple);
+    }
+
+    Map<String, Entity> entities = new HashMap<>();
+    Map<String, CompletableFuture<Entity>> creations = new LinkedHashMap<>();
+    for(Map.Entry<String, CompletableFuture<Entity>> lookup : lookups.entrySet()) {
+      String id = lookup.getKey();
+      try {
+        entities.put(id, AsyncWeaver.await(lookup.getValue()));
+      } catch (EntityNotFoundException e) {
+        if(linker == null) {
+          throw new ProcessException("CreateTriples could not find individual " + id);
+        }
+        ConcurrentMap<String, String> attributes = new ConcurrentHashMap<>();
+        attributes.put("source", source);
+        creations.put(id, createIndividualOnce(async, linker, id, attributes));
+      }
+    }
+
+    // Read the ones a concurrent task created
+    Map<String, CompletableFuture<Entity>> reads = new LinkedHashMap<>();
+    for(Map.Entry<String, CompletableFuture<Entity>> creation : creations.entrySet()) {
+      Entity created = AsyncWeaver.await(creation.getValue());
+      if(created != null) {
+        entities.put(creation.getKey(), created);
+      } else {
+        reads.put(creation.getKey(), async.get(creation.getKey(), new ReadPayload.Opts(1)));
+      }
+    }
+    for(Map.Entry<String, CompletableFuture<Entity>> read : reads.entrySet()) {
+      entities.put(read.getKey(), AsyncWeaver.await(read.getValue()));
+    }
+
+    // Without content ids, find which properties exist, one request per subject so its properties are only loaded once
+    boolean hashIds = hashesPropertyIds(context);
+    Map<String, CompletableFuture<List<Triple>>> missing = new LinkedHashMap<>();
+    for(Map.Entry<String, List<Triple>> subject : bySubject.entrySet()) {
+      Entity subjectEntity = entities.get(subject.getKey());
+      if(hashIds) {
+        missing.put(subject.getKey(), CompletableFuture.completedFuture(subject.getValue()));
+        continue;
+      }
+      missing.put(subject.getKey(), async.submit(w -> {
+        List<Triple> absent = new ArrayList<>();
+        for(Triple triple : subject.getValue()) {
+          Map<String, String> existingProperties = getProperty(w, subjectEntity, triple.predicate);
+          if(existingProperties == null || !existingProperties.containsKey(triple.object)) {
+            absent.add(triple);
+          }
+        }
+        return absent;
+      }));
+    }
+
+    // Claim every property on this thread and send its creation right away
+    List<CompletableFuture<?>> writes = new ArrayList<>();
+    for(Map.Entry<String, CompletableFuture<List<Triple>>> subject : missing.entrySet()) {
+      Entity subjectEntity = entities.get(subject.getKey());
+      for(Triple triple : AsyncWeaver.await(subject.getValue())) {
+        writes.add(writeTriple(context, async, subjectEntity, triple, entities, source, hashIds));
+      }
+    }
+    for(CompletableFuture<?> write : writes) {
+      AsyncWeaver.await(write);
+    }
+    if(linker != null) {
+      finishDatasetLinks(context);
+    }
+  }
+
+  /**
+   * Property ids are never given, so content ids alone tell whether a
+   * property exists.
+   */
+  @Override
+  protected boolean hashesPropertyIds(ProcessContext context) {
+    return idGenerator(context).isDeterministic();
+  }
+
+  private CompletableFuture<Void> writeTriple(ProcessContext context, AsyncWeaver async, Entity subject, Triple triple,
+                                             Map<String, Entity> entities, String source, boolean hashIds) {
+
+    String propertyHash = propertyHash(subject.getId(), triple.predicate, triple.object, source);
+    String id = idGenerator(context).generate(propertyHash);
+
+    // With content ids only the id has to be checked, inside the claim
+    return createOnce(context, async, propertyHash, w -> {
+      if(hashIds && exists(w, id)) {
+        return;
+      }
+      if(triple.isIndividual()) {
+        createIndividualProperty(w, id, subject, triple.predicate, entities.get(triple.object), source);
+      } else {
+        createValueProperty(w, subject, id, triple.predicate, triple.object, source);
+      }
+    });
+  }
+
+  private static Triple parseJson(String line, String defaultType) {
+    Triple triple;
+    try {
+      triple = gson.fromJson(line, Triple.class);
+    } catch (JsonParseException e) {
+      return null;
+    }
+    if(triple == null) {
+      return null;
+    }
+    if(triple.type == null || triple.type.isEmpty()) {
+      triple.type = defaultType;
+    }
+    return triple.isValid() ? triple : null;
+  }
+
+  private static Triple parseCsv(String line, String defaultType) {
+    List<String> fields = splitCsv(line);
+    if(fields == null || fields.size() < 3) {
+      return null;
+    }
+    Triple triple = new Triple();
+    triple.subject = fields.get(0).trim();
+    triple.predicate = fields.get(1).trim();
+    triple.object = fields.get(2);
+    triple.type = fields.size() > 3 && !fields.get(3).trim().isEmpty() ? fields.get(3).trim() : defaultType;
+    return triple.isValid() ? triple : null;
+  }
+
+  /**
+   * Splits a CSV line on commas. A field can be quoted to contain commas,
+   * with "" for a quote. Fields can not span lines. Returns null for an
+   * unterminated quote.
+   */
+  static List<String> splitCsv(String line) {
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for(int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if(quoted) {
+        if(c == '"') {
+          if(i + 1 < line.length() && line.charAt(i + 1) == '"') {
+            field.append('"');
+            i++;
+          } else {
+            quoted = false;
+          }
+        } else {
+          field.append(c);
+        }
+      } else if(c == '"') {
+        quoted = true;
+      } else if(c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    if(quoted) {
+      return null;
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+
+  private static class Triple {
+    String subject;
+    String predicate;
+    String object;
+    String type;
+
+    boolean isIndividual() {
+      return INDIVIDUAL.equals(type);
+    }
+
+    boolean isValid() {
+      if(subject == null || subject.isEmpty() || subject.contains(" ")
+          || predicate == null || predicate.isEmpty() || predicate.contains(" ")
+          || object == null || object.isEmpty()) {
+        return false;
+      }
+      if(isIndividual()) {
+        return !object.contains(" ");
+      }
+      return VALUE.equals(type);
+    }
+  }
+}
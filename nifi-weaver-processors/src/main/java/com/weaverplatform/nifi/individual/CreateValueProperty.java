@@ -1,10 +1,10 @@
 package com.weaverplatform.nifi.individual;
 
-import com.weaverplatform.nifi.util.LockRegistry;
 import com.weaverplatform.sdk.*;
 import com.weaverplatform.sdk.json.request.ReadPayload;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
 import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
@@ -21,10 +21,9 @@ import org.apache.nifi.processor.util.StandardValidators;
 
 import java.util.Collections;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 
+@SupportsBatching
 @Tags({"create, valueproperty, weaver"})
 @CapabilityDescription("Creates a valueproperty object")
 @SeeAlso({})
@@ -105,6 +104,7 @@ public class CreateValueProperty extends PropertyProcessor {
     descriptors.add(OBJECT_STATIC);
     descriptors.add(IS_UPDATING);
     descriptors.add(PREVENT_DUPLICATION);
+    descriptors.add(BATCH_SIZE);
     this.properties = Collections.unmodifiableList(descriptors);
     
 
@@ -113,17 +113,15 @@ public class CreateValueProperty extends PropertyProcessor {
 
   @Override
   public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-
-    final ProcessorLog log = this.getLogger();
-
     Weaver weaver = getWeaver();
-
-    FlowFile flowFile = session.get();
-    if (flowFile == null) {
-      return;
+    for(FlowFile flowFile : getBatch(context, session)) {
+      onTrigger(context, session, weaver, flowFile);
     }
+  }
+
+  private void onTrigger(final ProcessContext context, final ProcessSession session, Weaver weaver, FlowFile flowFile) throws ProcessException {
+    final ProcessorLog log = this.getLogger();
 
-    String id = idFromOptions(context, flowFile, true);
     String source = getSource(context, flowFile);
 
     String subject = valueFromOptions(context, flowFile, SUBJECT_ATTRIBUTE, SUBJECT_STATIC, null);
@@ -142,6 +140,9 @@ public class CreateValueProperty extends PropertyProcessor {
       return;
     }
 
+    String propertyHash = propertyHash(subject, predicate, object, source);
+    String id = propertyId(context, flowFile, propertyHash);
+
     Entity individual;
     try {
       individual = weaver.get(subject, new ReadPayload.Opts(1));
@@ -152,59 +153,37 @@ public class CreateValueProperty extends PropertyProcessor {
     }
 
 
-    boolean isUpdating = !context.getProperty(IS_UPDATING).isSet() || context.getProperty(IS_UPDATING).asBoolean();
-    boolean preventDuplication =  !context.getProperty(PREVENT_DUPLICATION).isSet() || context.getProperty(PREVENT_DUPLICATION).asBoolean();
+    boolean isUpdating = config(context).asBoolean(IS_UPDATING, true);
+    boolean preventDuplication =  config(context).asBoolean(PREVENT_DUPLICATION, true);
     
-    if(preventDuplication || isUpdating) {
+    if(hashesPropertyIds(context)) {
+
+      // The id tells whether the property exists
+      createOnce(context, propertyHash, () -> {
+        if(!exists(weaver, id)) {
+          createValueProperty(weaver, individual, id, predicate, object, source);
+        }
+      });
+    }
+    else if(preventDuplication || isUpdating) {
       
-      Map<String,Entity> existingProperties = getProperty(weaver, individual, predicate);
+      Map<String,String> existingProperties = getProperty(weaver, individual, predicate);
       
-      if(existingProperties != null) {
+      boolean exactSameObject = existingProperties != null && existingProperties.containsKey(object);
 
-        boolean exactSameObject = existingProperties.containsKey(object);
-        
-        if(!exactSameObject) {
-          createNewProperty(weaver,individual, id, predicate, object, source);
-        }
-      }
-      else {
-        String propertyHash = individual.getId()+predicate+object+source;
-        try {
-          if(!LockRegistry.request("created", propertyHash)) {
-            createNewProperty(weaver, individual, id, predicate, object, source);
-            LockRegistry.release("created", propertyHash);
-          }
-        } catch (InterruptedException e) {
-          throw new ProcessException(e);
-        }
+      if(!exactSameObject) {
+        createOnce(context, propertyHash, () -> createValueProperty(weaver, individual, id, predicate, object, source));
       }
     }
     else {
-      createNewProperty(weaver,individual, id, predicate, object, source);
+      createValueProperty(weaver, individual, id, predicate, object, source);
     }
     
 
-    if(context.getProperty(ATTRIBUTE_NAME_FOR_ID).isSet()) {
-      String attributeNameForId = context.getProperty(ATTRIBUTE_NAME_FOR_ID).getValue();
+    if(config(context).isSet(ATTRIBUTE_NAME_FOR_ID)) {
+      String attributeNameForId = config(context).get(ATTRIBUTE_NAME_FOR_ID);
       flowFile = session.putAttribute(flowFile, attributeNameForId, id);
     }
     session.transfer(flowFile, ORIGINAL);
   }
-
-  
-  private void createNewProperty(Weaver weaver, Entity individual, String id, String predicate, String object, String source) {
-    ConcurrentMap<String, ShallowEntity> relations = new ConcurrentHashMap<>();
-    relations.put("subject", individual.toShallowEntity());
-    relations.put("predicate", new ShallowEntity(predicate, "$PREDICATE"));
-
-    ConcurrentMap<String, String> entityAttributes = new ConcurrentHashMap<>();
-    entityAttributes.put("object", object);
-    entityAttributes.put("source", source);
-
-    Entity valueProperty = weaver.add(entityAttributes, EntityType.VALUE_PROPERTY, id, relations);
-    ShallowEntity properties = individual.getRelations().get("properties");
-
-    Entity propertiesEntity = weaver.get(properties.getId());
-    propertiesEntity.linkEntity(valueProperty.getId(), valueProperty.toShallowEntity());
-  }
-}
\ No newline at end of file
+}
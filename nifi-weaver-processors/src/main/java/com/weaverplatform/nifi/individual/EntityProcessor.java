@@ -1,14 +1,22 @@
 package com.weaverplatform.nifi.individual;
 
 import com.weaverplatform.nifi.WeaverProcessor;
+import com.weaverplatform.nifi.util.ExistenceCache;
+import com.weaverplatform.nifi.util.IdGenerator;
+import com.weaverplatform.nifi.util.IdGenerators;
+import com.weaverplatform.nifi.util.LockRegistry;
+import com.weaverplatform.nifi.util.LookupCache;
+import com.weaverplatform.nifi.util.RandomIdGenerator;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 
-import java.util.UUID;
+import java.util.List;
 
 /**
  * @author Bastiaan Bijl
@@ -50,7 +58,37 @@ public abstract class EntityProcessor extends WeaverProcessor {
       .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
       .build();
 
+  public static final PropertyDescriptor ID_GENERATOR = new PropertyDescriptor
+      .Builder().name("Id Generator")
+      .description("How the id of a new entity is created if none is given. 'random' ids are " +
+          "random UUIDs. 'time-ordered' ids start with the time they were created, so new " +
+          "entities are stored close together. 'content-hash' ids of a property are a hash of " +
+          "its subject, predicate, object and source, so creating it again gives the same id. " +
+          "Other entities have no content that identifies them and get random ids.")
+      .required(true)
+      .allowableValues(IdGenerators.names())
+      .defaultValue(IdGenerators.DEFAULT)
+      .build();
+
+  public static final PropertyDescriptor SINGLE_WRITER = new PropertyDescriptor
+      .Builder().name("Single Writer")
+      .description("Only set to true if this node is the only one writing to Weaver, and " +
+          "Weaver held nothing else when NiFi started (or was wiped by the WipeProcessor " +
+          "since). Entities this node never saw or created are then known not to exist " +
+          "without asking Weaver.")
+      .required(true)
+      .allowableValues("true", "false")
+      .defaultValue("false")
+      .build();
 
+  public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor
+      .Builder().name("Batch Size")
+      .description("Maximum number of FlowFiles to take per run. They share one session and " +
+          "connection, and processors that can look up or write for all of them at once do so.")
+      .required(true)
+      .defaultValue("1")
+      .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+      .build();
 
   @Override
   protected void init(final ProcessorInitializationContext context) {
@@ -62,10 +100,19 @@ public abstract class EntityProcessor extends WeaverProcessor {
     descriptors.add(ATTRIBUTE_NAME_FOR_ID);
     descriptors.add(SOURCE_ATTRIBUTE);
     descriptors.add(SOURCE_STATIC);
+    descriptors.add(ID_GENERATOR);
 
   }
 
 
+  /**
+   * The FlowFiles of one run, at most 'Batch Size'. Only for processors that
+   * have the BATCH_SIZE property.
+   */
+  protected List<FlowFile> getBatch(ProcessContext context, ProcessSession session) {
+    return session.get(config(context).asInteger(BATCH_SIZE));
+  }
+
   public String getSource(ProcessContext context, FlowFile flowFile) {
     return valueFromOptions(context, flowFile, SOURCE_ATTRIBUTE, SOURCE_STATIC, "unset");
   }
@@ -73,25 +120,69 @@ public abstract class EntityProcessor extends WeaverProcessor {
   
   public String idFromOptions(ProcessContext context, FlowFile flowFile, boolean createRandomFallback) throws ProcessException {
     
-    String fallback = null;
-    if(createRandomFallback) {
-      fallback = UUID.randomUUID().toString();
+    if(createRandomFallback && !hasIdOption(context)) {
+      return entityIdGenerator(context).generate(flowFile.getAttribute(CoreAttributes.UUID.key()));
     }
     
-    return valueFromOptions(context, flowFile, INDIVIDUAL_ATTRIBUTE, INDIVIDUAL_STATIC, fallback);
+    return valueFromOptions(context, flowFile, INDIVIDUAL_ATTRIBUTE, INDIVIDUAL_STATIC, null);
   }
-  
-  public String valueFromOptions(ProcessContext context, FlowFile flowFile, PropertyDescriptor attributeValue, PropertyDescriptor staticValue, String fallback) throws ProcessException {
-    
-    if(context.getProperty(attributeValue).isSet()) {
-      return flowFile.getAttribute(context.getProperty(attributeValue).getValue());
-    } else if(context.getProperty(staticValue).isSet()) {
-      return context.getProperty(staticValue).getValue();
+
+  public boolean hasIdOption(ProcessContext context) {
+    return config(context).isSet(INDIVIDUAL_ATTRIBUTE) || config(context).isSet(INDIVIDUAL_STATIC);
+  }
+
+  /**
+   * Which entities exist in the Weaver instance of this processor, as far as
+   * this node knows.
+   */
+  protected ExistenceCache existenceCache() {
+    return scope().getExistence();
+  }
+
+  /**
+   * Which subjects have a property with a predicate and object, as far as
+   * this node knows.
+   */
+  protected LookupCache lookupCache() {
+    return scope().getLookups();
+  }
+
+  /**
+   * What is being created in the Weaver instance of this processor.
+   */
+  protected LockRegistry locks() {
+    return scope().getLocks();
+  }
+
+  /**
+   * The processor counter to count an existence cache answer in.
+   */
+  protected static String counterName(ExistenceCache.Answer answer) {
+    switch(answer) {
+      case EXISTS: return "Existence cache hits";
+      case ABSENT: return "Existence known absent";
+      default:     return "Existence cache misses";
     }
+  }
+
+  public IdGenerator idGenerator(ProcessContext context) {
+    return IdGenerators.get(config(context).get(ID_GENERATOR));
+  }
 
-    if(fallback != null) {
-      return fallback;
+  /**
+   * The generator for entities other than properties. These are only known
+   * by their FlowFile, which is new every time, so a deterministic generator
+   * would not give the same id again and the random one is used instead.
+   */
+  protected IdGenerator entityIdGenerator(ProcessContext context) {
+    IdGenerator generator = idGenerator(context);
+    if(generator.isDeterministic()) {
+      return IdGenerators.get(RandomIdGenerator.NAME);
     }
-    throw new ProcessException("No attribute value could be found for "+attributeValue+" or "+staticValue);
+    return generator;
+  }
+  
+  public String valueFromOptions(ProcessContext context, FlowFile flowFile, PropertyDescriptor attributeValue, PropertyDescriptor staticValue, String fallback) throws ProcessException {
+    return config(context).valueFromOptions(flowFile, attributeValue, staticValue, fallback);
   }
 }
\ No newline at end of file
@@ -1,12 +1,14 @@
 package com.weaverplatform.nifi.individual;
 
+import com.google.gson.stream.JsonWriter;
+import com.weaverplatform.nifi.util.AsyncWeaver;
 import com.weaverplatform.sdk.Entity;
-import com.weaverplatform.sdk.ShallowEntity;
 import com.weaverplatform.sdk.Weaver;
 import com.weaverplatform.sdk.json.request.QueryFromFilter;
 import com.weaverplatform.sdk.json.request.ReadPayload;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
 import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
@@ -14,24 +16,36 @@ import org.apache.nifi.annotation.documentation.SeeAlso;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.logging.ProcessorLog;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+@SupportsBatching
 @Tags({"weaver, get, property"})
 @CapabilityDescription("Find an entity id")
 @SeeAlso({})
 @ReadsAttributes({@ReadsAttribute(attribute="", description="")})
-@WritesAttributes({@WritesAttribute(attribute="", description="")})
+@WritesAttributes({@WritesAttribute(attribute=GetIdFromProperty.COUNT_ATTRIBUTE, description="Number of ids found, " +
+    "if they are written into the content")})
 public class GetIdFromProperty extends FlowFileProcessor {
 
   public static final PropertyDescriptor SUBJECT_ATTRIBUTE = new PropertyDescriptor
@@ -76,7 +90,39 @@ public class GetIdFromProperty extends FlowFileProcessor {
     .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
     .build();
 
+  public static final PropertyDescriptor CACHE_LOOKUPS = new PropertyDescriptor
+    .Builder().name("Cache Lookups")
+    .description("If true, the subjects found for a predicate and object are kept for " +
+        "weaver.cache.lookups.ttl seconds and used again. Properties written by " +
+        "CreateIndividualProperty or CreateTriples on this node are seen right away, those " +
+        "written elsewhere once the answer expired.")
+    .required(true)
+    .allowableValues("true", "false")
+    .defaultValue("false")
+    .build();
+
+  public static final Relationship FAILURE = new Relationship.Builder()
+    .name("failure")
+    .description("FlowFiles without a predicate, with both or neither of subject and object, or whose " +
+        "subject was not found or lacks the predicate are transferred to this relationship, penalized.")
+    .build();
 
+  public static final String FLOWFILE_PER_ID = "flowfile-per-id";
+  public static final String NEWLINE_DELIMITED = "newline-delimited";
+  public static final String JSON_ARRAY = "json-array";
+
+  public static final String COUNT_ATTRIBUTE = "weaver.ids.count";
+
+  public static final PropertyDescriptor OUTPUT_MODE = new PropertyDescriptor
+    .Builder().name("Output Mode")
+    .description("How found ids are sent. 'flowfile-per-id' sends a copy of the FlowFile for " +
+        "every id, with the id in the 'Attribute Name For Id' attribute. 'newline-delimited' and " +
+        "'json-array' replace the content of the FlowFile with all ids, one per line or as a " +
+        "JSON array, and set " + COUNT_ATTRIBUTE + " to their number.")
+    .required(true)
+    .allowableValues(FLOWFILE_PER_ID, NEWLINE_DELIMITED, JSON_ARRAY)
+    .defaultValue(FLOWFILE_PER_ID)
+    .build();
 
   @Override
   protected void init(final ProcessorInitializationContext context) {
@@ -89,9 +135,12 @@ public class GetIdFromProperty extends FlowFileProcessor {
     descriptors.add(PREDICATE_STATIC);
     descriptors.add(OBJECT_ATTRIBUTE);
     descriptors.add(OBJECT_STATIC);
+    descriptors.add(CACHE_LOOKUPS);
+    descriptors.add(OUTPUT_MODE);
+    descriptors.add(BATCH_SIZE);
     this.properties = Collections.unmodifiableList(descriptors);
 
-
+    relationshipSet.add(FAILURE);
     this.relationships = new AtomicReference<>(relationshipSet);
   }
 
@@ -99,92 +148,188 @@ public class GetIdFromProperty extends FlowFileProcessor {
   public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
     final ProcessorLog log = this.getLogger();
 
-    Weaver weaver = getWeaver();
-
-    FlowFile flowFile = session.get();
-    if (flowFile == null) {
+    List<FlowFile> flowFiles = getBatch(context, session);
+    if(flowFiles.isEmpty()) {
       return;
     }
 
-    if(!context.getProperty(ATTRIBUTE_NAME_FOR_ID).isSet()) {
+    String mode = config(context).get(OUTPUT_MODE);
+    if(FLOWFILE_PER_ID.equals(mode) && !config(context).isSet(ATTRIBUTE_NAME_FOR_ID)) {
       throw new ProcessException("Setting Attribute Name For Id is required!");
     }
-    String attributeNameForId = context.getProperty(ATTRIBUTE_NAME_FOR_ID).getValue();
-
-    String subject = valueFromOptions(context, flowFile, SUBJECT_ATTRIBUTE, SUBJECT_STATIC, null);
-    String predicate = valueFromOptions(context, flowFile, PREDICATE_ATTRIBUTE, PREDICATE_STATIC, null);
-    String object = valueFromOptions(context, flowFile, OBJECT_ATTRIBUTE, OBJECT_STATIC, null);
-    
-    if(predicate == null) {
-      throw new ProcessException("Predicate not set for GetIdFromProperty.");
-    }
-    if(subject == null && object == null) {
-      throw new ProcessException("GetIdFromProperty should be able to find subject or object. It did not find both.");
-    }
+    String attributeNameForId = config(context).get(ATTRIBUTE_NAME_FOR_ID);
+
+    Weaver weaver = getWeaver();
+    AsyncWeaver async = getAsyncWeaver();
+    boolean cached = config(context).asBoolean(CACHE_LOOKUPS, false);
+
+    // FlowFiles that look for the same predicate and object share one query
+    Map<FlowFile, Lookup> byObject = new LinkedHashMap<>();
+    Map<Lookup, CompletableFuture<List<String>>> queries = new HashMap<>();
+    AtomicLong queryMicros = new AtomicLong();
+    for(FlowFile flowFile : flowFiles) {
+
+      String subject = valueFromOptions(context, flowFile, SUBJECT_ATTRIBUTE, SUBJECT_STATIC, null);
+      String predicate = valueFromOptions(context, flowFile, PREDICATE_ATTRIBUTE, PREDICATE_STATIC, null);
+      String object = valueFromOptions(context, flowFile, OBJECT_ATTRIBUTE, OBJECT_STATIC, null);
+
+      // A FlowFile that can't be looked up goes to failure, the rest of the batch goes on
+      if(predicate == null) {
+        fail(session, flowFile, "Predicate not set for GetIdFromProperty.");
+        continue;
+      }
+      if(subject == null && object == null) {
+        fail(session, flowFile, "GetIdFromProperty should be able to find subject or object. It did not find both.");
+        continue;
+      }
+      if(subject != null && object != null) {
+        fail(session, flowFile, "Either subject or object should be empty for GetIdFromProperty.");
+        continue;
+      }
+
+      if(object == null) {
+        try {
+
+          // Get the subject from weaver
+          Entity individual = weaver.get(subject, new ReadPayload.Opts(1));
+          List<Entity> properties = PropertyLookup.withPredicate(weaver, individual, predicate);
+          if(properties.isEmpty()) {
+            fail(session, flowFile, "GetIdFromProperty found the subject "+subject+", but it did not have the predicate "+predicate+".");
+            continue;
+          }
 
-    
-    if(object == null) {
-      try {
-
-        // Get the subject from weaver
-        Entity individual = weaver.get(subject, new ReadPayload.Opts(1));
-        ConcurrentMap<String, ShallowEntity> relations = individual.getRelations();
-        for(ShallowEntity relationShell : relations.values()) {
-          
-          Entity relation = weaver.get(relationShell.getId(), new ReadPayload.Opts(1));
-          if(predicate.equals(relation.getAttributeValue("predicate"))) {
-
-            Object relationshipObject = relation.getAttributeValue("object");
-            if(relationshipObject instanceof Entity) {
-              sendFoundId(session, attributeNameForId, ((Entity)relationshipObject).getId(), flowFile);
-            } else
-            if(relationshipObject instanceof ShallowEntity) {
-              sendFoundId(session, attributeNameForId, ((ShallowEntity)relationshipObject).getId(), flowFile);
+          List<String> found = new ArrayList<>();
+          for(Entity relation : properties) {
+            if(PropertyLookup.isIndividualProperty(relation)) {
+              found.add(PropertyLookup.objectOf(relation));
             } else {
               log.info("skipping, was a string and not an entity (GetIdFromProperty)");
             }
           }
-          
-        }
-        if(!relations.containsKey(predicate)) {
-          throw new ProcessException("GetIdFromProperty found the subject "+subject+", but it did not have the predicate "+predicate+".");
+          sendFoundIds(session, mode, attributeNameForId, found, flowFile);
+
+        } catch (IndexOutOfBoundsException | NullPointerException e) {
+          fail(session, flowFile, "GetIdFromProperty did not find the subject " + subject + ": " + e);
         }
 
-      } catch (IndexOutOfBoundsException e) {
-        throw new ProcessException(e);
-      } catch (NullPointerException e) {
-        throw new ProcessException(e);
+      } else {
+        Lookup lookup = new Lookup(predicate, object);
+        byObject.put(flowFile, lookup);
+        if(!queries.containsKey(lookup)) {
+          List<String> found = cached ? lookupCache().get(predicate, object) : null;
+          if(found != null) {
+            session.adjustCounter("Lookup cache hits", 1, false);
+            queries.put(lookup, CompletableFuture.completedFuture(found));
+          } else {
+            if(cached) {
+              session.adjustCounter("Lookup cache misses", 1, false);
+            }
+            queries.put(lookup, query(async, lookup, cached, queryMicros));
+            session.adjustCounter("Lookup queries", 1, false);
+          }
+        }
       }
-    } else if(subject == null) {
-      try {
+    }
 
+    // The distinct queries of the batch went out together, wait for them in order
+    for(Map.Entry<FlowFile, Lookup> entry : byObject.entrySet()) {
+      sendFoundIds(session, mode, attributeNameForId, AsyncWeaver.await(queries.get(entry.getValue())), entry.getKey());
+    }
+    session.adjustCounter("Lookups shared", byObject.size() - queries.size(), false);
+    session.adjustCounter("Lookup query microseconds", queryMicros.get(), false);
+  }
 
+  /**
+   * Sends the query for the subjects with a property of this predicate and
+   * object.
+   */
+  private CompletableFuture<List<String>> query(AsyncWeaver async, Lookup lookup, boolean cached, AtomicLong queryMicros) {
+    return async.submit(w -> {
+      long stamp = lookupCache().stamp();
+      long start = System.nanoTime();
+      ArrayList<QueryFromFilter> filters = new ArrayList<>();
+      QueryFromFilter filter = new QueryFromFilter(lookup.predicate);
+      filter.addIndividualCondition("this-individual", lookup.object);
+      filters.add(filter);
+      List<String> found = Collections.unmodifiableList(new ArrayList<>(w.queryFromFilters(filters)));
+      queryMicros.addAndGet((System.nanoTime() - start) / 1000);
+
+      if(cached) {
+        lookupCache().putIfCurrent(lookup.predicate, lookup.object, found, stamp);
+      }
+      return found;
+    });
+  }
 
-        ArrayList<QueryFromFilter> filters = new ArrayList<>();
-        QueryFromFilter filter = new QueryFromFilter(predicate);
-        filter.addIndividualCondition("this-individual", object);
-        filters.add(filter);
-        ArrayList<String> results = weaver.queryFromFilters(filters);
+  private void fail(ProcessSession session, FlowFile flowFile, String reason) {
+    getLogger().error(reason + " Routing " + flowFile + " to failure.");
+    session.transfer(session.penalize(flowFile), FAILURE);
+  }
 
-        for(String subjectId : results) {
-          sendFoundId(session, attributeNameForId, subjectId, flowFile);
-        }
+  private void sendFoundIds(ProcessSession session, String mode, String attributeName, List<String> ids, FlowFile flowFile) {
 
-      } catch (IndexOutOfBoundsException e) {
-        throw new ProcessException(e);
-      } catch (NullPointerException e) {
-        throw new ProcessException(e);
+    if(FLOWFILE_PER_ID.equals(mode)) {
+      for(String id : ids) {
+        sendFoundId(session, attributeName, id, flowFile);
       }
-    } else {
-      throw new ProcessException("Either subject or object should be empty for GetIdeFromProperty.");
+
+      // Every found id went out as a clone
+      session.remove(flowFile);
+      return;
     }
+
+    // All ids in one FlowFile, written straight into its content
+    boolean json = JSON_ARRAY.equals(mode);
+    flowFile = session.write(flowFile, out -> {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+      if(json) {
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.beginArray();
+        for(String id : ids) {
+          jsonWriter.value(id);
+        }
+        jsonWriter.endArray();
+        jsonWriter.flush();
+      } else {
+        for(String id : ids) {
+          writer.write(id);
+          writer.write('\n');
+        }
+        writer.flush();
+      }
+    });
+    flowFile = session.putAttribute(flowFile, COUNT_ATTRIBUTE, String.valueOf(ids.size()));
+    flowFile = session.putAttribute(flowFile, CoreAttributes.MIME_TYPE.key(), json ? "application/json" : "text/plain");
+    session.transfer(flowFile, ORIGINAL);
   }
-  
+
   private void sendFoundId(ProcessSession session, String attributeName, String id, FlowFile flowFile) {
     FlowFile clonedFlowFile = session.clone(flowFile);
     clonedFlowFile = session.putAttribute(clonedFlowFile, attributeName, id);
     session.transfer(clonedFlowFile, ORIGINAL);
   }
 
+  private static class Lookup {
+    final String predicate;
+    final String object;
+
+    Lookup(String predicate, String object) {
+      this.predicate = predicate;
+      this.object = object;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if(!(other instanceof Lookup)) {
+        return false;
+      }
+      Lookup lookup = (Lookup) other;
+      return predicate.equals(lookup.predicate) && object.equals(lookup.object);
+    }
 
-}
\ No newline at end of file
+    @Override
+    public int hashCode() {
+      return 31 * predicate.hashCode() + object.hashCode();
+    }
+  }
+}
@@ -1,16 +1,18 @@
 package com.weaverplatform.nifi.individual;
 
+import com.weaverplatform.nifi.util.ExistenceCache;
+import com.weaverplatform.sdk.Entity;
 import com.weaverplatform.sdk.EntityNotFoundException;
 import com.weaverplatform.sdk.Weaver;
 import com.weaverplatform.sdk.json.request.ReadPayload;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
 import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.SeeAlso;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.components.PropertyDescriptor;
-import org.apache.nifi.components.PropertyValue;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.logging.ProcessorLog;
 import org.apache.nifi.processor.ProcessContext;
@@ -23,6 +25,7 @@ import org.apache.nifi.processor.util.StandardValidators;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
 
+@SupportsBatching
 @Tags({"weaver, individual, exists, deprecated"})
 @SeeAlso({})
 @ReadsAttributes({@ReadsAttribute(attribute="", description="")})
@@ -39,23 +42,18 @@ public class IndividualExists extends EntityProcessor {
     .description("Original FlowFile if individual does not exist.")
     .build();
 
-  private volatile Set<String> dynamicPropertyNames;
-  private Map<String, PropertyValue> propertyMap;
-
   @Override
   protected void init(final ProcessorInitializationContext context) {
     
     super.init(context);
 
+    descriptors.add(SINGLE_WRITER);
+    descriptors.add(BATCH_SIZE);
     this.properties = Collections.unmodifiableList(descriptors);
 
     relationshipSet.add(EXISTS);
     relationshipSet.add(NOT_EXISTS);
     this.relationships = new AtomicReference<>(relationshipSet);
-
-    // For dynamic properties
-    this.dynamicPropertyNames = new HashSet<>();
-    this.propertyMap = new HashMap<>();
   }
 
   @Override
@@ -71,18 +69,32 @@ public class IndividualExists extends EntityProcessor {
 
   @Override
   public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+    Weaver weaver = getWeaver();
+    for(FlowFile flowFile : getBatch(context, session)) {
+      onTrigger(context, session, weaver, flowFile);
+    }
+  }
+
+  private void onTrigger(final ProcessContext context, final ProcessSession session, Weaver weaver, FlowFile flowFile) throws ProcessException {
     final ProcessorLog log = this.getLogger();
 
-    Weaver weaver = getWeaver();
+    String id = idFromOptions(context, flowFile, false);
 
-    FlowFile flowFile = session.get();
-    if (flowFile == null) {
+    ExistenceCache existence = existenceCache();
+    ExistenceCache.Answer answer = existence.lookup(id, config(context).asBoolean(SINGLE_WRITER, false));
+    session.adjustCounter(counterName(answer), 1, false);
+    if(answer == ExistenceCache.Answer.EXISTS) {
+      session.transfer(flowFile, EXISTS);
       return;
     }
-    
-    String id = idFromOptions(context, flowFile, false);
+    if(answer == ExistenceCache.Answer.ABSENT) {
+      session.transfer(flowFile, NOT_EXISTS);
+      return;
+    }
+
     try {
-      weaver.get(id, new ReadPayload.Opts(0));
+      Entity entity = weaver.get(id, new ReadPayload.Opts(0));
+      existence.present(id, entity.getAttributes());
       session.transfer(flowFile, EXISTS);
     } catch (EntityNotFoundException e) {
       session.transfer(flowFile, NOT_EXISTS);
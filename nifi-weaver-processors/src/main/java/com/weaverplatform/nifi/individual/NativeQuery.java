@@ -1,5 +1,6 @@
 package com.weaverplatform.nifi.individual;
 
+import com.google.gson.stream.JsonWriter;
 import com.weaverplatform.nifi.WeaverProcessor;
 import com.weaverplatform.sdk.Weaver;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
@@ -11,30 +12,38 @@ import org.apache.nifi.annotation.documentation.SeeAlso;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessSessionFactory;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
 
 @Tags({"weaver, native, query, sparql, virtuoso"})
 @CapabilityDescription("A native querying processor for Virtuoso through Weaver.")
 @SeeAlso({})
 @ReadsAttributes({@ReadsAttribute(attribute="", description="")})
-@WritesAttributes({@WritesAttribute(attribute="", description="")})
+@WritesAttributes({@WritesAttribute(attribute=NativeQuery.COUNT_ATTRIBUTE, description="The number of rows in a 'csv' or 'json-lines' FlowFile.")})
 public class NativeQuery extends WeaverProcessor {
 
   public static final Relationship RESULT_ROW = new Relationship.Builder()
           .name("result row")
-          .description("All the found result rows are sent over this link (one by one).")
+          .description("All the found result rows are sent over this link (one by one, or in batches).")
           .build();
 
   public static final Relationship ORIGINAL = new Relationship.Builder()
@@ -42,6 +51,11 @@ public class NativeQuery extends WeaverProcessor {
           .description("Input for this processor will be transferred to this relationship.")
           .build();
 
+  public static final Relationship FAILURE = new Relationship.Builder()
+          .name("failure")
+          .description("Input for which the query failed is transferred to this relationship.")
+          .build();
+
   public static final PropertyDescriptor SELECT = new PropertyDescriptor
           .Builder().name("select")
           .description("Comma separated select vars.")
@@ -57,6 +71,52 @@ public class NativeQuery extends WeaverProcessor {
           .expressionLanguageSupported(true)
           .build();
 
+  public static final PropertyDescriptor PAGE_SIZE = new PropertyDescriptor
+          .Builder().name("page size")
+          .description("If set, the query is run page by page with LIMIT and OFFSET, and the rows " +
+              "of every page are sent on before the next page is fetched. The query should have an " +
+              "ORDER BY so the pages don't overlap, and no LIMIT or OFFSET of its own.")
+          .required(false)
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor MAX_ROWS = new PropertyDescriptor
+          .Builder().name("max rows")
+          .description("If set, at most this many rows are fetched.")
+          .required(false)
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final String ROW = "row";
+  public static final String CSV = "csv";
+  public static final String JSON_LINES = "json-lines";
+
+  public static final PropertyDescriptor OUTPUT_FORMAT = new PropertyDescriptor
+          .Builder().name("output format")
+          .description("How result rows are sent. 'row' sends a FlowFile per row with the values " +
+              "separated by ';'. 'csv' and 'json-lines' write up to 'rows per flowfile' rows into " +
+              "one FlowFile, as CSV with a header of the select vars, or as one JSON object per line " +
+              "keyed by the select vars.")
+          .required(true)
+          .allowableValues(ROW, CSV, JSON_LINES)
+          .defaultValue(ROW)
+          .build();
+
+  public static final PropertyDescriptor ROWS_PER_FLOWFILE = new PropertyDescriptor
+          .Builder().name("rows per flowfile")
+          .description("The most rows written into one FlowFile with output format 'csv' or 'json-lines'. " +
+              "A FlowFile never holds rows of two pages.")
+          .required(true)
+          .defaultValue("10000")
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final String COUNT_ATTRIBUTE = "weaver.query.rows";
+
+  private final ThreadLocal<ProcessSessionFactory> sessionFactories = new ThreadLocal<>();
+
+  // A LIMIT or OFFSET at the end of the query
+  private static final Pattern OWN_LIMIT = Pattern.compile("(?i)\\b(LIMIT|OFFSET)\\s+\\d+\\s*((LIMIT|OFFSET)\\s+\\d+\\s*)?$");
 
   @Override
   protected void init(final ProcessorInitializationContext context) {
@@ -64,13 +124,32 @@ public class NativeQuery extends WeaverProcessor {
 
     descriptors.add(SELECT);
     descriptors.add(QUERY);
+    descriptors.add(PAGE_SIZE);
+    descriptors.add(MAX_ROWS);
+    descriptors.add(OUTPUT_FORMAT);
+    descriptors.add(ROWS_PER_FLOWFILE);
     this.properties = Collections.unmodifiableList(descriptors);
 
     relationshipSet.add(RESULT_ROW);
     relationshipSet.add(ORIGINAL);
+    relationshipSet.add(FAILURE);
     this.relationships = new AtomicReference<>(relationshipSet);
   }
 
+  /**
+   * Keeps the session factory of the trigger, so every page of rows can be
+   * sent on in a session of its own.
+   */
+  @Override
+  public void onTrigger(final ProcessContext context, final ProcessSessionFactory sessionFactory) throws ProcessException {
+    sessionFactories.set(sessionFactory);
+    try {
+      super.onTrigger(context, sessionFactory);
+    } finally {
+      sessionFactories.remove();
+    }
+  }
+
   @Override
   public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
     Weaver weaver = getWeaver();
@@ -95,34 +174,38 @@ public class NativeQuery extends WeaverProcessor {
     }
 
     // Get selects
-    String select = context.getProperty(SELECT).getValue();
-    ArrayList<String> selectVars = new ArrayList<>();
-    Collections.addAll(selectVars, select.split(","));
+    ArrayList<String> selectVars = new ArrayList<>(config(context).asList(SELECT));
 
-    // Separator between every column in the row
-    String separator = ";";
+    Integer pageSize = config(context).asInteger(PAGE_SIZE);
+    Integer maxRows = config(context).asInteger(MAX_ROWS);
 
-    // Execute query
-    ArrayList<ArrayList<String>> result = weaver.channel.nativeQuery(new com.weaverplatform.sdk.json.request.NativeQuery(query, selectVars));
-
-    for(ArrayList<String> row : result) {
+    // Every page is sent on as soon as it is written, the original once all pages are out
+    ProcessSessionFactory sessionFactory = sessionFactories.get();
+    try {
+      if(pageSize == null) {
+        String limited = maxRows == null ? query : page(query, maxRows, 0);
+        ArrayList<ArrayList<String>> result = weaver.channel.nativeQuery(new com.weaverplatform.sdk.json.request.NativeQuery(limited, selectVars));
+        sendPage(context, sessionFactory, flowFile, selectVars, result, false);
+      } else {
+        long offset = 0;
+        while(maxRows == null || offset < maxRows) {
+          int limit = maxRows == null ? pageSize : (int) Math.min(pageSize, maxRows - offset);
+          ArrayList<ArrayList<String>> result = weaver.channel.nativeQuery(new com.weaverplatform.sdk.json.request.NativeQuery(page(query, limit, offset), selectVars));
+          sendPage(context, sessionFactory, flowFile, selectVars, result, true);
 
-      String resultRow = "";
-      for(String value : row) {
-        resultRow += value + separator;
+          offset += result.size();
+          if(result.size() < limit) {
+            break;
+          }
+        }
       }
-      resultRow = resultRow.substring(0, resultRow.length() - 1); // remove last separator
-
-      InputStream in = new ByteArrayInputStream(resultRow.getBytes(StandardCharsets.UTF_8));
-      FlowFile newFlowFile;
-      if(flowFile != null) {
-        newFlowFile = session.create(flowFile);
-      } else {
-        newFlowFile = session.create();
+    } catch (RuntimeException e) {
+      if(flowFile == null) {
+        throw e;
       }
-
-      newFlowFile = session.importFrom(in, newFlowFile);
-      session.transfer(newFlowFile, RESULT_ROW);
+      getLogger().error("Query failed for " + flowFile + ", routing to failure", e);
+      session.transfer(session.penalize(flowFile), FAILURE);
+      return;
     }
 
     // Transfer original
@@ -130,4 +213,147 @@ public class NativeQuery extends WeaverProcessor {
       session.transfer(flowFile, ORIGINAL);
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Writes the rows of one page and commits them in a session of their own,
+   * so they go on while the next page is fetched.
+   */
+  private void sendPage(ProcessContext context, ProcessSessionFactory sessionFactory, FlowFile parent,
+                        List<String> selectVars, List<ArrayList<String>> rows, boolean paged) {
+    ProcessSession pageSession = sessionFactory.createSession();
+    try {
+      List<FlowFile> written = new ArrayList<>();
+      writeRows(context, pageSession, parent, selectVars, rows, written);
+      pageSession.transfer(written, RESULT_ROW);
+      if(paged) {
+        pageSession.adjustCounter("Pages", 1, false);
+      }
+      pageSession.commit();
+    } catch (RuntimeException e) {
+      pageSession.rollback();
+      throw e;
+    }
+  }
+
+  /**
+   * The query limited to one page of rows.
+   */
+  static String page(String query, long limit, long offset) {
+    if(OWN_LIMIT.matcher(query).find()) {
+      throw new ProcessException("Can not page or limit a query that has its own LIMIT or OFFSET, remove it or leave 'page size' and 'max rows' empty");
+    }
+    return query + "\nLIMIT " + limit + " OFFSET " + offset;
+  }
+
+  /**
+   * Writes the rows in the output format into new FlowFiles, with the
+   * attributes of the parent if there is one, and adds them to the written
+   * ones. The parent belongs to another session, so it can't be their
+   * parent in the lineage.
+   */
+  private void writeRows(ProcessContext context, ProcessSession session, FlowFile parent,
+                         List<String> selectVars, List<ArrayList<String>> rows, List<FlowFile> written) {
+
+    String format = config(context).get(OUTPUT_FORMAT);
+    int rowsPerFlowFile = ROW.equals(format) ? 1 : config(context).asInteger(ROWS_PER_FLOWFILE);
+
+    for(int from = 0; from < rows.size(); from += rowsPerFlowFile) {
+      List<ArrayList<String>> batch = rows.subList(from, Math.min(from + rowsPerFlowFile, rows.size()));
+
+      FlowFile newFlowFile = session.create();
+      if(parent != null) {
+        Map<String, String> attributes = new HashMap<>(parent.getAttributes());
+        attributes.remove(CoreAttributes.UUID.key());
+        newFlowFile = session.putAllAttributes(newFlowFile, attributes);
+      }
+      newFlowFile = session.write(newFlowFile, out -> {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        if(JSON_LINES.equals(format)) {
+          writeJsonLines(writer, selectVars, batch);
+        } else if(CSV.equals(format)) {
+          writeCsv(writer, selectVars, batch);
+        } else {
+          writeRow(writer, batch.get(0));
+        }
+        writer.flush();
+      });
+
+      if(CSV.equals(format)) {
+        newFlowFile = session.putAttribute(newFlowFile, CoreAttributes.MIME_TYPE.key(), "text/csv");
+      } else if(JSON_LINES.equals(format)) {
+        newFlowFile = session.putAttribute(newFlowFile, CoreAttributes.MIME_TYPE.key(), "application/x-ndjson");
+      }
+      if(!ROW.equals(format)) {
+        newFlowFile = session.putAttribute(newFlowFile, COUNT_ATTRIBUTE, String.valueOf(batch.size()));
+      }
+      written.add(newFlowFile);
+    }
+  }
+
+  /**
+   * The values separated by ';'.
+   */
+  static void writeRow(Writer writer, List<String> row) throws IOException {
+    for(int i = 0; i < row.size(); i++) {
+      if(i > 0) {
+        writer.write(';');
+      }
+      writer.write(String.valueOf(row.get(i)));
+    }
+  }
+
+  /**
+   * A header of the select vars and a line per row, values quoted as in
+   * RFC 4180 when they hold a comma, quote or line break.
+   */
+  static void writeCsv(Writer writer, List<String> selectVars, List<? extends List<String>> rows) throws IOException {
+    writeCsvLine(writer, selectVars);
+    for(List<String> row : rows) {
+      writeCsvLine(writer, row);
+    }
+  }
+
+  private static void writeCsvLine(Writer writer, List<String> values) throws IOException {
+    for(int i = 0; i < values.size(); i++) {
+      if(i > 0) {
+        writer.write(',');
+      }
+      String value = values.get(i);
+      if(value == null) {
+        continue;
+      }
+      if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+        writer.write(value);
+        continue;
+      }
+      writer.write('"');
+      for(int c = 0; c < value.length(); c++) {
+        char ch = value.charAt(c);
+        if(ch == '"') {
+          writer.write('"');
+        }
+        writer.write(ch);
+      }
+      writer.write('"');
+    }
+    writer.write("\r\n");
+  }
+
+  /**
+   * A JSON object per row, keyed by the select vars.
+   */
+  static void writeJsonLines(Writer writer, List<String> selectVars, List<? extends List<String>> rows) throws IOException {
+
+    // Lenient to allow a value per line, the JsonWriter writes straight through
+    JsonWriter jsonWriter = new JsonWriter(writer);
+    jsonWriter.setLenient(true);
+    for(List<String> row : rows) {
+      jsonWriter.beginObject();
+      for(int i = 0; i < selectVars.size() && i < row.size(); i++) {
+        jsonWriter.name(selectVars.get(i)).value(row.get(i));
+      }
+      jsonWriter.endObject();
+      writer.write('\n');
+    }
+  }
+}
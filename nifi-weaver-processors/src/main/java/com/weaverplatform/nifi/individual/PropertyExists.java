@@ -2,11 +2,11 @@ package com.weaverplatform.nifi.individual;
 
 import com.weaverplatform.sdk.Entity;
 import com.weaverplatform.sdk.EntityNotFoundException;
-import com.weaverplatform.sdk.ShallowEntity;
 import com.weaverplatform.sdk.Weaver;
 import com.weaverplatform.sdk.json.request.ReadPayload;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
 import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.SeeAlso;
@@ -21,8 +21,11 @@ import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 
+@SupportsBatching
 @Tags({"weaver, property, exists"})
 @SeeAlso({})
 @ReadsAttributes({@ReadsAttribute(attribute="", description="")})
@@ -60,6 +63,7 @@ public class PropertyExists extends EntityProcessor {
 
     descriptors.add(PREDICATE_STATIC);
     descriptors.add(PREDICATE_ATTRIBUTE);
+    descriptors.add(BATCH_SIZE);
     this.properties = Collections.unmodifiableList(descriptors);
 
     relationshipSet.add(EXISTS);
@@ -70,12 +74,12 @@ public class PropertyExists extends EntityProcessor {
   @Override
   public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
     Weaver weaver = getWeaver();
-
-    FlowFile flowFile = session.get();
-    if (flowFile == null) {
-      return;
+    for(FlowFile flowFile : getBatch(context, session)) {
+      onTrigger(context, session, weaver, flowFile);
     }
-    
+  }
+
+  private void onTrigger(final ProcessContext context, final ProcessSession session, Weaver weaver, FlowFile flowFile) throws ProcessException {
     // Get the predicate
     String predicate = valueFromOptions(context, flowFile, PREDICATE_ATTRIBUTE, PREDICATE_STATIC, null);
     if(predicate == null){
@@ -92,22 +96,11 @@ public class PropertyExists extends EntityProcessor {
       throw new ProcessException("Individual does not exists");
     }
     
-    ShallowEntity relationsShallow = entity.getRelations().get("properties");
-    
-    if (relationsShallow == null){
-      session.transfer(flowFile, NOT_EXISTS);
+    Map<String, List<Entity>> properties = PropertyLookup.byPredicate(weaver, entity);
+    if (properties != null && properties.containsKey(predicate)){
+      session.transfer(flowFile, EXISTS);
       return;
     }
-    
-    // Load relations and check for existence
-    Entity relations = weaver.get(relationsShallow.getId(), new ReadPayload.Opts(1));
-    for(ShallowEntity shallowRelation : relations.getRelations().values()){
-      Entity relation = weaver.get(shallowRelation.getId(), new ReadPayload.Opts(1));
-      if(predicate.equals(relation.getAttributes().get("predicate"))){
-        session.transfer(flowFile, EXISTS);
-        return;
-      }
-    }
 
     // Nothing found
     session.transfer(flowFile, NOT_EXISTS);
@@ -0,0 +1,84 @@
+package com.weaverplatform.nifi.individual;
+
+import com.weaverplatform.sdk.Entity;
+import com.weaverplatform.sdk.ShallowEntity;
+import com.weaverplatform.sdk.Weaver;
+import com.weaverplatform.sdk.json.request.ReadPayload;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads all properties of a subject with one read of its properties
+ * collection, which resolves its members, instead of one read per property.
+ */
+public class PropertyLookup {
+
+  /**
+   * The properties of the subject per predicate, or null if the subject has
+   * no properties collection.
+   */
+  public static Map<String, List<Entity>> byPredicate(Weaver weaver, Entity subject) {
+
+    ShallowEntity relationsShallow = subject.getRelations().get("properties");
+    if (relationsShallow == null){
+      return null;
+    }
+
+    // The collection with its members resolved, one level deep
+    Entity relations = weaver.get(relationsShallow.getId(), new ReadPayload.Opts(1));
+
+    Map<String, List<Entity>> properties = new HashMap<>();
+    for(Map.Entry<String, ShallowEntity> member : relations.getRelations().entrySet()) {
+
+      // A resolved member comes with the payload, shallow ones have to be read
+      Object resolved = relations.getAttributeValue(member.getKey());
+      Entity relation = resolved instanceof Entity ? (Entity) resolved : weaver.get(member.getValue().getId(), new ReadPayload.Opts(0));
+
+      String predicate = predicateOf(relation);
+      if(predicate != null) {
+        properties.computeIfAbsent(predicate, p -> new ArrayList<>()).add(relation);
+      }
+    }
+    return properties;
+  }
+
+  /**
+   * The properties of the subject with this predicate, empty if there are none.
+   */
+  public static List<Entity> withPredicate(Weaver weaver, Entity subject, String predicate) {
+    Map<String, List<Entity>> properties = byPredicate(weaver, subject);
+    if(properties == null || !properties.containsKey(predicate)) {
+      return new ArrayList<>();
+    }
+    return properties.get(predicate);
+  }
+
+  /**
+   * The predicate of a property, linked or (for old properties) as attribute.
+   */
+  public static String predicateOf(Entity property) {
+    ShallowEntity predicate = property.getRelations().get("predicate");
+    if(predicate != null) {
+      return predicate.getId();
+    }
+    return property.getAttributes().get("predicate");
+  }
+
+  /**
+   * The id of the object of an individual property, or the value of a value property.
+   */
+  public static String objectOf(Entity property) {
+    if(isIndividualProperty(property)) {
+      ShallowEntity object = property.getRelations().get("object");
+      return object == null ? null : object.getId();
+    }
+    return property.getAttributes().get("object");
+  }
+
+  public static boolean isIndividualProperty(Entity property) {
+    return "$INDIVIDUAL_PROPERTY".equals(property.getType());
+  }
+}
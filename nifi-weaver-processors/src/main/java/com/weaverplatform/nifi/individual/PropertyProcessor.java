@@ -1,55 +1,446 @@
 package com.weaverplatform.nifi.individual;
 
+import com.google.common.hash.Hashing;
+import com.weaverplatform.nifi.util.AsyncWeaver;
+import com.weaverplatform.nifi.util.DatasetLinker;
+import com.weaverplatform.nifi.util.WeaverScope;
 import com.weaverplatform.sdk.Entity;
+import com.weaverplatform.sdk.EntityNotFoundException;
+import com.weaverplatform.sdk.EntityType;
 import com.weaverplatform.sdk.ShallowEntity;
 import com.weaverplatform.sdk.Weaver;
 import com.weaverplatform.sdk.json.request.ReadPayload;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.distributed.cache.client.Deserializer;
+import org.apache.nifi.distributed.cache.client.DistributedMapCacheClient;
+import org.apache.nifi.distributed.cache.client.Serializer;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.exception.ProcessException;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 
 /**
  * @author Mohamad Alamili
  */
 public abstract class PropertyProcessor extends FlowFileProcessor {
 
+  public static final PropertyDescriptor DISTRIBUTED_CACHE = new PropertyDescriptor
+      .Builder().name("Distributed Cache Service")
+      .description("Optional. If set, a property is only created by the node that first " +
+          "claims it in this cache, so nodes in a cluster don't create the same property.")
+      .required(false)
+      .identifiesControllerService(DistributedMapCacheClient.class)
+      .build();
+
+  private static final Serializer<String> stringSerializer =
+      (value, output) -> output.write(value.getBytes(StandardCharsets.UTF_8));
+
+  private static final Deserializer<String> stringDeserializer =
+      input -> input == null || input.length == 0 ? null : new String(input, StandardCharsets.UTF_8);
+
+  @Override
+  protected void init(final ProcessorInitializationContext context) {
+
+    super.init(context);
+
+    descriptors.add(DISTRIBUTED_CACHE);
+  }
+
   /**
-   * The key of the map is the ID of the object or the value of the object
+   * The key of the map is the ID of the object or the value of the object,
+   * the value is the ID of the property
    * @param weaver
    * @param subject
    * @param predicate
    * @return
    */
-  protected Map<String, Entity> getProperty(Weaver weaver, Entity subject, String predicate) {
-    Map<String, Entity> foundProperties = new HashMap<>();
-    
-    ShallowEntity relationsShallow = subject.getRelations().get("properties");
+  protected Map<String, String> getProperty(Weaver weaver, Entity subject, String predicate) {
+
+    ConcurrentMap<String, ConcurrentMap<String, String>> predicates = scope().getIndex().get(subject.getId());
+    if(predicates == null) {
+      predicates = loadProperties(weaver, subject);
+      if(predicates == null) {
+        return null;
+      }
+      scope().getIndex().put(subject.getId(), predicates);
+    }
+
+    Map<String, String> foundProperties = predicates.get(predicate);
 
-    if (relationsShallow == null){
+    // Not found
+    if (foundProperties == null || foundProperties.isEmpty()){
       return null;
     }
+    else
+      return foundProperties;
+  }
 
-    // Load relations and check for existence
-    Entity relations = weaver.get(relationsShallow.getId(), new ReadPayload.Opts(1));
+  /**
+   * Forgets everything the processors on this node remember about every
+   * Weaver instance, its datasets included, for when it was wiped.
+   */
+  public static void forgetAll() {
+    for(WeaverScope scope : allScopes()) {
+      scope.forgetAll();
+    }
+  }
 
-    for(ShallowEntity shallowRelation : relations.getRelations().values()){
-      Entity relation = weaver.get(shallowRelation.getId(), new ReadPayload.Opts(1));
+  /**
+   * Identifies a property by everything that makes it a duplicate.
+   */
+  protected static String propertyHash(String subjectId, String predicate, String object, String source) {
+    return subjectId + '\u0000' + predicate + '\u0000' + object + '\u0000' + source;
+  }
 
-      String foundPredicate = relation.getRelations().get("predicate").getId();
+  /**
+   * Whether property ids are derived from the property, so the id alone
+   * tells whether it exists.
+   */
+  protected boolean hashesPropertyIds(ProcessContext context) {
+    return !hasIdOption(context) && idGenerator(context).isDeterministic();
+  }
+
+  /**
+   * The id for a new property: the one given by the individual attribute or
+   * static value, otherwise one from the id generator.
+   */
+  protected String propertyId(ProcessContext context, FlowFile flowFile, String propertyHash) {
+    if(hasIdOption(context)) {
+      return idFromOptions(context, flowFile, true);
+    }
+    return idGenerator(context).generate(propertyHash);
+  }
+
+  /**
+   * Whether an entity with this id exists, without reading its relations.
+   */
+  protected boolean exists(Weaver weaver, String id) {
+    try {
+      weaver.get(id, new ReadPayload.Opts(0));
+      return true;
+    } catch (EntityNotFoundException e) {
+      return false;
+    }
+  }
 
-      if(predicate.equals(foundPredicate)){
-        if (relation.getType().equals("$INDIVIDUAL_PROPERTY"))
-          foundProperties.put(relation.getRelations().get("object").getId(), relation);
-        else
-          foundProperties.put(relation.getAttributes().get("object"), relation);
+  /**
+   * Creates the property unless another task on this node already did. A
+   * task creating the same property at the same time is waited for. With a
+   * distributed cache set, the property is also skipped when another node
+   * claimed it first. Properties this node knows about are answered without
+   * asking the cache.
+   */
+  protected void createOnce(ProcessContext context, String propertyHash, Runnable creation) {
+    Claim claim = claim(context, propertyHash);
+    if(claim == null) {
+      return;
+    }
+    try {
+      creation.run();
+    } catch (RuntimeException e) {
+      claim.cancel();
+      throw e;
+    }
+    claim.release();
+  }
+
+  /**
+   * Like createOnce, but the creation is sent as a request on the window.
+   * The claim is made on the calling thread, so no request thread waits for
+   * another task, and settled when the request completes.
+   */
+  protected CompletableFuture<Void> createOnce(ProcessContext context, AsyncWeaver async, String propertyHash, Consumer<Weaver> creation) {
+    Claim claim = claim(context, propertyHash);
+    if(claim == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    CompletableFuture<Void> request;
+    try {
+      request = async.submit(w -> {
+        creation.accept(w);
+        return null;
+      });
+    } catch (RuntimeException e) {
+      claim.cancel();
+      throw e;
+    }
+    return request.whenComplete((result, error) -> {
+      if(error == null) {
+        claim.release();
+      } else {
+        claim.cancel();
+      }
+    });
+  }
+
+  /**
+   * Claims the creation of a property, on this node and, with a distributed
+   * cache set, across the cluster. Returns null if it was created or claimed
+   * before. Waits while a concurrent task on this node holds the claim, so
+   * it is only called on the task's own thread.
+   *
+   * Claims are made within the claim generation of the Weaver instance, a
+   * wipe starts a new one so the claims of what was wiped no longer count.
+   * The generation is remembered, and only read again when a claim fails.
+   */
+  private Claim claim(ProcessContext context, String propertyHash) {
+    try {
+      if(locks().request("created", propertyHash)) {
+        return null;
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessException(e);
     }
 
-    // Not found
-    if (foundProperties.isEmpty()){
+    DistributedMapCacheClient cache = config(context).asControllerService(DISTRIBUTED_CACHE, DistributedMapCacheClient.class);
+    if(cache == null) {
+      return new Claim(propertyHash, null, null);
+    }
+
+    try {
+      String generation = scope().getClaimGeneration();
+      if(generation == null) {
+        generation = claimGeneration(cache, weaverUrl());
+        scope().setClaimGeneration(generation);
+      }
+      String cacheKey = claimKey(generation, propertyHash);
+      boolean claimed = cache.putIfAbsent(cacheKey, getIdentifier(), stringSerializer, stringSerializer);
+
+      // The claim may be from before a wipe another node did
+      if(!claimed) {
+        String current = claimGeneration(cache, weaverUrl());
+        if(!current.equals(generation)) {
+          scope().setClaimGeneration(current);
+          cacheKey = claimKey(current, propertyHash);
+          claimed = cache.putIfAbsent(cacheKey, getIdentifier(), stringSerializer, stringSerializer);
+        }
+      }
+      if(!claimed) {
+        locks().release("created", propertyHash);
+        return null;
+      }
+      return new Claim(propertyHash, cache, cacheKey);
+    } catch (IOException e) {
+      locks().cancel("created", propertyHash);
+      throw new ProcessException("Could not claim property in distributed cache", e);
+    } catch (RuntimeException e) {
+      locks().cancel("created", propertyHash);
+      throw e;
+    }
+  }
+
+  /**
+   * A property this task may create. Released once it is created, cancelled
+   * if creating failed so another task or node can retry.
+   */
+  private class Claim {
+    final String propertyHash;
+    final DistributedMapCacheClient cache;
+    final String cacheKey;
+
+    Claim(String propertyHash, DistributedMapCacheClient cache, String cacheKey) {
+      this.propertyHash = propertyHash;
+      this.cache = cache;
+      this.cacheKey = cacheKey;
+    }
+
+    void release() {
+      locks().release("created", propertyHash);
+    }
+
+    void cancel() {
+      locks().cancel("created", propertyHash);
+      unclaim(cache, cacheKey);
+    }
+  }
+
+  private String claimKey(String generation, String propertyHash) {
+    return "weaver-property-" + Hashing.sha256().hashString(weaverUrl() + "\n" + generation + "\n" + propertyHash, StandardCharsets.UTF_8);
+  }
+
+  private static String generationKey(String url) {
+    return "weaver-claims-" + Hashing.sha256().hashString(url, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * The current claim generation of the Weaver instance at the url.
+   */
+  static String claimGeneration(DistributedMapCacheClient cache, String url) throws IOException {
+    String generation = cache.get(generationKey(url), stringSerializer, stringDeserializer);
+    return generation == null ? "" : generation;
+  }
+
+  /**
+   * Starts a new claim generation for the Weaver instance at the url, so no
+   * node takes the claims made before as proof a property exists.
+   */
+  static void newClaimGeneration(DistributedMapCacheClient cache, String url) throws IOException {
+    cache.put(generationKey(url), UUID.randomUUID().toString(), stringSerializer, stringSerializer);
+  }
+
+  /**
+   * Give up a claim after the creation failed, so another node can retry it.
+   */
+  private void unclaim(DistributedMapCacheClient cache, String cacheKey) {
+    if(cache == null) {
+      return;
+    }
+    try {
+      cache.remove(cacheKey, stringSerializer);
+    } catch (IOException e) {
+      getLogger().warn("Could not remove claim " + cacheKey + " from distributed cache", e);
+    }
+  }
+
+  /**
+   * Creates an individual with empty properties and annotations collections.
+   */
+  protected Entity createIndividual(Weaver weaver, String id, ConcurrentMap<String, String> attributes) {
+    Entity individual = weaver.add(attributes, EntityType.INDIVIDUAL, id);
+
+    Entity entityProperties = weaver.collection();
+    individual.linkEntity("properties", entityProperties.toShallowEntity());
+    scope().getPropertiesCollections().put(id, entityProperties);
+
+    Entity entityAnnotations = weaver.collection();
+    individual.linkEntity("annotations", entityAnnotations.toShallowEntity());
+
+    indexNewSubject(id);
+    existenceCache().present(id, attributes);
+
+    return individual;
+  }
+
+  /**
+   * Creates the individual and links it to the dataset, unless a concurrent
+   * task on this node already did. Guarded like CreateIndividual, so neither
+   * creates an individual the other is creating. The guard is taken on the
+   * calling thread and only the creation is sent as a request; the future
+   * holds null if another task created it.
+   */
+  protected CompletableFuture<Entity> createIndividualOnce(AsyncWeaver async, DatasetLinker.Run linker, String id, ConcurrentMap<String, String> attributes) {
+    try {
+      if(locks().request("individual", id)) {
+        return CompletableFuture.completedFuture(null);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessException(e);
+    }
+
+    CompletableFuture<Entity> request;
+    try {
+      request = async.submit(w -> createIndividual(w, id, attributes));
+    } catch (RuntimeException e) {
+      locks().cancel("individual", id);
+      throw e;
+    }
+    return request.whenComplete((created, error) -> {
+      if(error != null) {
+        locks().cancel("individual", id);
+        return;
+      }
+      locks().release("individual", id);
+      linker.link(id, created.toShallowEntity());
+    });
+  }
+
+  protected void createIndividualProperty(Weaver weaver, String id, Entity subjectEntity, String predicate, Entity objectEntity, String source) {
+    ConcurrentMap<String, String> entityAttributes = new ConcurrentHashMap<>();
+    entityAttributes.put("source", source);
+
+    ConcurrentMap<String, ShallowEntity> relations = new ConcurrentHashMap<>();
+    relations.put("subject", subjectEntity.toShallowEntity());
+    relations.put("object", objectEntity.toShallowEntity());
+    relations.put("predicate", new ShallowEntity(predicate, "$PREDICATE"));
+
+    Entity individualProperty = weaver.add(entityAttributes, EntityType.INDIVIDUAL_PROPERTY, id, relations);
+
+    // Link individual to collection
+    Entity entityProperties = propertiesCollection(weaver, subjectEntity);
+    entityProperties.linkEntity(individualProperty.getId(), individualProperty.toShallowEntity());
+
+    indexNewProperty(subjectEntity.getId(), predicate, objectEntity.getId(), individualProperty.getId());
+    lookupCache().invalidate(predicate, objectEntity.getId());
+  }
+
+  protected void createValueProperty(Weaver weaver, Entity individual, String id, String predicate, String object, String source) {
+    ConcurrentMap<String, ShallowEntity> relations = new ConcurrentHashMap<>();
+    relations.put("subject", individual.toShallowEntity());
+    relations.put("predicate", new ShallowEntity(predicate, "$PREDICATE"));
+
+    ConcurrentMap<String, String> entityAttributes = new ConcurrentHashMap<>();
+    entityAttributes.put("object", object);
+    entityAttributes.put("source", source);
+
+    Entity valueProperty = weaver.add(entityAttributes, EntityType.VALUE_PROPERTY, id, relations);
+
+    Entity propertiesEntity = propertiesCollection(weaver, individual);
+    propertiesEntity.linkEntity(valueProperty.getId(), valueProperty.toShallowEntity());
+
+    indexNewProperty(individual.getId(), predicate, object, valueProperty.getId());
+  }
+
+  /**
+   * The properties collection of the subject, only read from Weaver (without
+   * its members) if it is not cached yet.
+   */
+  protected Entity propertiesCollection(Weaver weaver, Entity subject) {
+    Entity collection = scope().getPropertiesCollections().getIfPresent(subject.getId());
+    if(collection == null) {
+      ShallowEntity shallowCollection = subject.getRelations().get("properties");
+      if(shallowCollection == null) {
+        throw new ProcessException("Subject entity has no properties, id is: " + subject.getId());
+      }
+      collection = weaver.get(shallowCollection.getId(), new ReadPayload.Opts(0));
+      scope().getPropertiesCollections().put(subject.getId(), collection);
+    }
+    return collection;
+  }
+
+  /**
+   * Keep the index up to date with a property this processor created.
+   */
+  protected void indexNewProperty(String subjectId, String predicate, String object, String propertyId) {
+    scope().getIndex().add(subjectId, predicate, object, propertyId);
+  }
+
+  /**
+   * Keep the index up to date with an individual this processor created.
+   */
+  protected void indexNewSubject(String subjectId) {
+    scope().getIndex().putEmpty(subjectId);
+  }
+
+  private ConcurrentMap<String, ConcurrentMap<String, String>> loadProperties(Weaver weaver, Entity subject) {
+
+    Map<String, List<Entity>> properties = PropertyLookup.byPredicate(weaver, subject);
+    if (properties == null){
       return null;
     }
-    else
-      return foundProperties;
+
+    ConcurrentMap<String, ConcurrentMap<String, String>> predicates = new ConcurrentHashMap<>();
+    for(Map.Entry<String, List<Entity>> entry : properties.entrySet()) {
+      ConcurrentMap<String, String> objects = new ConcurrentHashMap<>();
+      for(Entity relation : entry.getValue()) {
+        String object = PropertyLookup.objectOf(relation);
+        if(object != null) {
+          objects.put(object, relation.getId());
+        }
+      }
+      predicates.put(entry.getKey(), objects);
+    }
+    return predicates;
   }
-}
\ No newline at end of file
+}
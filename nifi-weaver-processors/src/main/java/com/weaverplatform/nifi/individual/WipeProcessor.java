@@ -9,14 +9,15 @@ import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.SeeAlso;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.distributed.cache.client.DistributedMapCacheClient;
 import org.apache.nifi.flowfile.FlowFile;
-import org.apache.nifi.logging.ProcessorLog;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -27,9 +28,6 @@ import java.util.concurrent.atomic.AtomicReference;
 @WritesAttributes({@WritesAttribute(attribute="", description="")})
 public class WipeProcessor extends WeaverProcessor {
 
-  FlowFile flowFile;
-
-
   public static final Relationship ORIGINAL = new Relationship.Builder()
       .name("Original Content")
       .description("Relationship to send original content to to.")
@@ -42,6 +40,7 @@ public class WipeProcessor extends WeaverProcessor {
     
     super.init(context); 
 
+    descriptors.add(PropertyProcessor.DISTRIBUTED_CACHE);
     this.properties = Collections.unmodifiableList(descriptors);
 
     relationshipSet.add(ORIGINAL);
@@ -51,11 +50,26 @@ public class WipeProcessor extends WeaverProcessor {
   @Override
   public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
 
-    Weaver weaver = getWeaver();
+    FlowFile flowFile = session.get();
+    if (flowFile == null) {
+      return;
+    }
 
-    final ProcessorLog log = this.getLogger();
-    flowFile = session.get();
+    Weaver weaver = getWeaver();
     weaver.wipe();
+
+    // Properties claimed before the wipe have to be created again
+    DistributedMapCacheClient cache = config(context).asControllerService(PropertyProcessor.DISTRIBUTED_CACHE, DistributedMapCacheClient.class);
+    if(cache != null) {
+      try {
+        PropertyProcessor.newClaimGeneration(cache, weaverUrl());
+      } catch (IOException e) {
+        throw new ProcessException("Could not reset property claims in distributed cache", e);
+      }
+    }
+
+    // The datasets and caches of the wiped instance all refer to what is gone
+    scope().forgetAll();
     session.transfer(flowFile, ORIGINAL);
   }
 }
@@ -1,7 +1,6 @@
 package com.weaverplatform.nifi.individual;
 
 import com.weaverplatform.importer.xmi.ImportXmi;
-import com.weaverplatform.nifi.util.WeaverProperties;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
 import org.apache.nifi.annotation.behavior.ReadsAttributes;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
@@ -15,7 +14,6 @@ import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.io.InputStreamCallback;
-import org.apache.nifi.util.NiFiProperties;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -35,7 +33,7 @@ public class XmiImporter extends FlowFileProcessor {
 
     super.init(context);
 
-
+    descriptors.add(DATASET_ATTRIBUTE);
 
     this.properties = Collections.unmodifiableList(descriptors);
     this.relationships = new AtomicReference<>(relationshipSet);
@@ -44,15 +42,14 @@ public class XmiImporter extends FlowFileProcessor {
   @Override
   public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
 
-
-    String datasetId = NiFiProperties.getInstance().get(WeaverProperties.DATASET).toString();
-
     FlowFile flowFile = session.get();
 
     if (flowFile == null) {
       return;
     }
 
+    String datasetId = datasetId(context, flowFile);
+
 
     String source = getSource(context, flowFile);
 
@@ -0,0 +1,119 @@
+package com.weaverplatform.nifi.service;
+
+import com.weaverplatform.nifi.util.AsyncWeaver;
+import com.weaverplatform.nifi.util.WeaverPool;
+import com.weaverplatform.sdk.Weaver;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.reporting.InitializationException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @see WeaverConnectionService
+ */
+@Tags({"weaver, connection, pool"})
+@CapabilityDescription("Connects eagerly to a Weaver instance when enabled and hands out " +
+    "the connections of its pool to the processors that use it.")
+public class StandardWeaverConnectionService extends AbstractControllerService implements WeaverConnectionService {
+
+  public static final PropertyDescriptor WEAVER_URL = new PropertyDescriptor
+      .Builder().name("Weaver URL")
+      .description("Weaver connection URL i.e. weaver.connect(url).")
+      .required(true)
+      .addValidator(StandardValidators.URL_VALIDATOR)
+      .build();
+
+  public static final PropertyDescriptor POOL_SIZE = new PropertyDescriptor
+      .Builder().name("Pool Size")
+      .description("Number of connections (each with its own socket) to open. Every " +
+          "processor thread sticks to one of them.")
+      .required(true)
+      .defaultValue(String.valueOf(WeaverPool.DEFAULT_SIZE))
+      .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+      .build();
+
+  public static final PropertyDescriptor REQUEST_WINDOW = new PropertyDescriptor
+      .Builder().name("Request Window")
+      .description("Maximum number of asynchronous requests in flight on one connection.")
+      .required(true)
+      .defaultValue(String.valueOf(AsyncWeaver.DEFAULT_WINDOW))
+      .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+      .build();
+
+  private static final List<PropertyDescriptor> properties;
+  static {
+    final List<PropertyDescriptor> descriptors = new ArrayList<>();
+    descriptors.add(WEAVER_URL);
+    descriptors.add(POOL_SIZE);
+    descriptors.add(REQUEST_WINDOW);
+    properties = Collections.unmodifiableList(descriptors);
+  }
+
+  private volatile WeaverPool pool;
+
+  @Override
+  protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+    return properties;
+  }
+
+  @OnEnabled
+  public void onEnabled(final ConfigurationContext context) throws InitializationException {
+    String url = context.getProperty(WEAVER_URL).getValue();
+    int size = context.getProperty(POOL_SIZE).asInteger();
+    int window = context.getProperty(REQUEST_WINDOW).asInteger();
+    try {
+      pool = new WeaverPool(url, size, window);
+    } catch (ProcessException e) {
+      throw new InitializationException(e);
+    }
+    getLogger().info("Connected " + size + " Weaver connections to " + url);
+  }
+
+  @OnDisabled
+  public void onDisabled() {
+    WeaverPool current = pool;
+    pool = null;
+    if(current != null) {
+      current.close();
+    }
+  }
+
+  @Override
+  public Weaver getWeaver() {
+    return enabledPool().get();
+  }
+
+  @Override
+  public AsyncWeaver getAsyncWeaver() {
+    return enabledPool().getAsync();
+  }
+
+  private WeaverPool enabledPool() {
+    WeaverPool current = pool;
+    if(current == null) {
+      throw new ProcessException("Weaver connection service " + getIdentifier() + " is not enabled");
+    }
+    return current;
+  }
+
+  @Override
+  public boolean isReady() {
+    return pool != null;
+  }
+
+  @Override
+  public String getUrl() {
+    WeaverPool current = pool;
+    return current == null ? null : current.getUrl();
+  }
+}
@@ -0,0 +1,29 @@
+package com.weaverplatform.nifi.service;
+
+import com.weaverplatform.nifi.util.AsyncWeaver;
+import com.weaverplatform.sdk.Weaver;
+import org.apache.nifi.controller.ControllerService;
+
+/**
+ * Owns a pool of connections to one Weaver instance, shared by all the
+ * processors that reference it.
+ */
+public interface WeaverConnectionService extends ControllerService {
+
+  /**
+   * A connection for the calling thread.
+   */
+  Weaver getWeaver();
+
+  /**
+   * The request window on the connection of the calling thread.
+   */
+  AsyncWeaver getAsyncWeaver();
+
+  /**
+   * True once all connections of the pool are set up.
+   */
+  boolean isReady();
+
+  String getUrl();
+}
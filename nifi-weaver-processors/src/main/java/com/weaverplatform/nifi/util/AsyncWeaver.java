@@ -0,0 +1,103 @@
+package com.weaverplatform.nifi.util;
+
+import com.weaverplatform.sdk.Entity;
+import com.weaverplatform.sdk.ShallowEntity;
+import com.weaverplatform.sdk.Weaver;
+import com.weaverplatform.sdk.json.request.ReadPayload;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Runs requests on one Weaver connection without blocking the caller, with
+ * at most a fixed number of them in flight at the same time. The socket
+ * pairs every response with its request, so the futures complete in
+ * whatever order Weaver answers.
+ *
+ * When the window is full, submitting blocks until a request completes.
+ */
+public class AsyncWeaver {
+
+  public static final int DEFAULT_WINDOW = 8;
+
+  private final Weaver weaver;
+  private final Semaphore window;
+  private final Executor executor;
+
+  public AsyncWeaver(Weaver weaver, int window, Executor executor) {
+    if(window < 1) {
+      throw new ProcessException("Request window should be at least 1, was " + window);
+    }
+    this.weaver = weaver;
+    this.window = new Semaphore(window);
+    this.executor = executor;
+  }
+
+  public Weaver getWeaver() {
+    return weaver;
+  }
+
+  public <T> CompletableFuture<T> submit(Function<Weaver, T> request) {
+    try {
+      window.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessException(e);
+    }
+    CompletableFuture<T> future;
+    try {
+      future = CompletableFuture.supplyAsync(() -> request.apply(weaver), executor);
+    } catch (RuntimeException e) {
+      window.release();
+      throw e;
+    }
+    return future.whenComplete((result, error) -> window.release());
+  }
+
+  public CompletableFuture<Entity> get(String id) {
+    return submit(w -> w.get(id));
+  }
+
+  public CompletableFuture<Entity> get(String id, ReadPayload.Opts opts) {
+    return submit(w -> w.get(id, opts));
+  }
+
+  public CompletableFuture<Entity> add(ConcurrentMap<String, String> attributes, String type, String id) {
+    return submit(w -> w.add(attributes, type, id));
+  }
+
+  public CompletableFuture<Entity> add(ConcurrentMap<String, String> attributes, String type, String id, ConcurrentMap<String, ShallowEntity> relations) {
+    return submit(w -> w.add(attributes, type, id, relations));
+  }
+
+  public CompletableFuture<Void> linkEntity(Entity parent, String key, ShallowEntity child) {
+    return submit(w -> {
+      parent.linkEntity(key, child);
+      return null;
+    });
+  }
+
+  /**
+   * Waits for the future and rethrows what the request threw, so callers
+   * can keep catching e.g. EntityNotFoundException.
+   */
+  public static <T> T await(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if(cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if(cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new ProcessException(cause);
+    }
+  }
+}
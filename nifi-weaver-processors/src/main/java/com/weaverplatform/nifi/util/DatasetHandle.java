@@ -0,0 +1,188 @@
+package com.weaverplatform.nifi.util;
+
+import com.weaverplatform.sdk.Entity;
+import com.weaverplatform.sdk.EntityNotFoundException;
+import com.weaverplatform.sdk.Weaver;
+import com.weaverplatform.sdk.json.request.ReadPayload;
+import com.weaverplatform.sdk.model.Dataset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the processors on a node hold of one dataset: the dataset, the layout
+ * of its objects and, once asked for, its views collection and the linker
+ * that links new entities to it.
+ */
+public class DatasetHandle {
+
+  public static final int DEFAULT_RECHECK = 30000;
+
+  private static final Logger logger = LoggerFactory.getLogger(DatasetHandle.class);
+
+  private final String id;
+  private final Entity dataset;
+  private volatile DatasetObjects objects;
+  private final AtomicLong checkedAt = new AtomicLong(System.currentTimeMillis());
+
+  private Entity views;
+  private DatasetLinker linker;
+  private final Set<Object> users = new HashSet<>();
+
+  private DatasetHandle(String id, Entity dataset, DatasetObjects objects) {
+    this.id = id;
+    this.dataset = dataset;
+    this.objects = objects;
+  }
+
+  /**
+   * Reads the dataset, or creates it if it does not exist. A new dataset
+   * gets this many buckets for its objects, none if 0.
+   */
+  public static DatasetHandle load(Weaver weaver, String id, int buckets) {
+    Entity dataset;
+    DatasetObjects objects = null;
+    try {
+      logger.info("Getting dataset " + id);
+      dataset = weaver.get(id, new ReadPayload.Opts(1));
+    } catch(EntityNotFoundException e) {
+      dataset = new Dataset(weaver, id).get(id);
+
+      if(buckets > 0) {
+        logger.info("Bucketing objects of new dataset " + id + " over " + buckets + " buckets");
+        objects = DatasetObjects.create(weaver, buckets);
+        dataset.linkEntity("objects", objects.getCollection().toShallowEntity());
+      }
+    }
+
+    if(objects == null) {
+      Entity collection = weaver.get(dataset.getRelations().get("objects").getId(), new ReadPayload.Opts(0));
+      objects = DatasetObjects.load(weaver, collection);
+    }
+    return new DatasetHandle(id, dataset, objects);
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public Entity getDataset() {
+    return dataset;
+  }
+
+  public DatasetObjects getObjects() {
+    return objects;
+  }
+
+  /**
+   * Reads which objects collection the dataset links, at most once per
+   * interval, and switches to it if it was replaced, e.g. by BucketDataset
+   * on another node. Queued links then go into the new collection.
+   */
+  public void recheck(Weaver weaver, long intervalMillis) {
+    long last = checkedAt.get();
+    long now = System.currentTimeMillis();
+    if(now - last < intervalMillis || !checkedAt.compareAndSet(last, now)) {
+      return;
+    }
+
+    DatasetObjects current = objects;
+    DatasetObjects replaced;
+    try {
+      Entity fresh = weaver.get(id, new ReadPayload.Opts(0));
+      String collectionId = fresh.getRelations().get("objects").getId();
+      if(collectionId.equals(current.getCollection().getId())) {
+        return;
+      }
+      replaced = DatasetObjects.load(weaver, weaver.get(collectionId, new ReadPayload.Opts(0)));
+    } catch (RuntimeException e) {
+      logger.warn("Could not check the objects of dataset " + id + ", will retry", e);
+      return;
+    }
+
+    synchronized (this) {
+      objects = replaced;
+      if(linker != null) {
+        linker.setObjects(replaced);
+      }
+    }
+    logger.info("Objects of dataset " + id + " moved from " + current.getCollection().getId() +
+        " to " + replaced.getCollection().getId());
+  }
+
+  public synchronized Entity getViews(Weaver weaver) {
+    if(views == null) {
+      views = weaver.get(dataset.getRelations().get("views").getId(), new ReadPayload.Opts(0));
+    }
+    return views;
+  }
+
+  /**
+   * The linker of the dataset, made on first use. The user keeps it running
+   * until it releases it.
+   */
+  public synchronized DatasetLinker getLinker(Object user, AsyncWeaver async, int batch, long intervalMillis) {
+    if(linker == null) {
+      linker = new DatasetLinker(objects, async, batch, intervalMillis);
+    }
+    users.add(user);
+    return linker;
+  }
+
+  /**
+   * Stops using the linker. The last user to release it sends the queued
+   * links and stops the linker, with its background thread.
+   */
+  public synchronized void release(Object user) {
+    if(users.remove(user) && users.isEmpty()) {
+      close();
+    }
+  }
+
+  /**
+   * Sends the queued links, if a linker was made.
+   */
+  public void flush() {
+    DatasetLinker current;
+    synchronized (this) {
+      current = linker;
+    }
+    if(current != null) {
+      current.flush();
+    }
+  }
+
+  public synchronized int pending() {
+    return linker == null ? 0 : linker.pending();
+  }
+
+  /**
+   * Stops the linker without sending the queued links, for when the dataset
+   * was wiped.
+   */
+  public synchronized void discard() {
+    users.clear();
+    if(linker != null) {
+      linker.discard();
+      linker = null;
+    }
+  }
+
+  /**
+   * Sends the queued links and stops the linker.
+   */
+  public synchronized void close() {
+    users.clear();
+    if(linker != null) {
+      try {
+        linker.flush();
+      } finally {
+        linker.close();
+        linker = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,221 @@
+package com.weaverplatform.nifi.util;
+
+import com.weaverplatform.sdk.ShallowEntity;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queues links of new entities to the objects of a dataset and sends them in
+ * bulk: all queued links go out at once over the request window of one
+ * connection. A background thread flushes every fixed number of links and
+ * at a fixed interval. A run that needs its links sent before it goes on
+ * waits for its own links only, see {@link Run}.
+ *
+ * Links that fail are queued again and retried on the next flush.
+ */
+public class DatasetLinker {
+
+  public static final int DEFAULT_BATCH = 1000;
+  public static final int DEFAULT_INTERVAL = 1000;
+
+  private static final Logger logger = LoggerFactory.getLogger(DatasetLinker.class);
+
+  private volatile DatasetObjects objects;
+  private final AsyncWeaver async;
+  private final int batch;
+
+  private final ConcurrentLinkedQueue<Link> pending = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final ScheduledExecutorService flusher;
+
+  public DatasetLinker(DatasetObjects objects, AsyncWeaver async, int batch, long intervalMillis) {
+    this.objects = objects;
+    this.async = async;
+    this.batch = batch;
+
+    this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "weaver-dataset-linker");
+      thread.setDaemon(true);
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flushQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Queue a link, never waits for Weaver. The future completes when the
+   * link was sent, or fails if sending it failed; it is then queued again.
+   */
+  public CompletableFuture<Void> link(String key, ShallowEntity member) {
+    Link link = new Link(key, member);
+    pending.add(link);
+    if(size.incrementAndGet() % batch == 0) {
+      requestFlush();
+    }
+    return link.sent;
+  }
+
+  /**
+   * A view on this linker for one run, that keeps track of the links the
+   * run queued.
+   */
+  public Run run() {
+    return new Run();
+  }
+
+  /**
+   * Sends the queued links and waits for them. Throws what the first failed
+   * link threw, after queueing the failed links again. No lock is held while
+   * waiting, concurrent flushes each send the links they took.
+   */
+  public void flush() {
+    List<Link> links = new ArrayList<>();
+    Link link;
+    while((link = pending.poll()) != null) {
+      size.decrementAndGet();
+      links.add(link);
+    }
+    if(links.isEmpty()) {
+      return;
+    }
+
+    DatasetObjects layout = objects;
+    List<CompletableFuture<Void>> requests = new ArrayList<>(links.size());
+    for(Link queued : links) {
+      requests.add(async.linkEntity(layout.collectionFor(queued.key), queued.key, queued.member));
+    }
+
+    RuntimeException failure = null;
+    for(int i = 0; i < links.size(); i++) {
+      Link queued = links.get(i);
+      try {
+        AsyncWeaver.await(requests.get(i));
+        queued.sent.complete(null);
+      } catch (RuntimeException e) {
+        pending.add(new Link(queued.key, queued.member));
+        size.incrementAndGet();
+        queued.sent.completeExceptionally(e);
+        if(failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if(failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Links the queued and new links into this layout from now on, for when
+   * the objects collection of the dataset was replaced.
+   */
+  public void setObjects(DatasetObjects objects) {
+    this.objects = objects;
+  }
+
+  public int pending() {
+    return size.get();
+  }
+
+  public void close() {
+    flusher.shutdown();
+  }
+
+  /**
+   * Stops without sending the queued links, for when the dataset was wiped.
+   * Runs waiting for them are told they failed.
+   */
+  public void discard() {
+    flusher.shutdown();
+    Link link;
+    while((link = pending.poll()) != null) {
+      size.decrementAndGet();
+      link.sent.completeExceptionally(new ProcessException("Dataset was wiped before the link was sent"));
+    }
+  }
+
+  /**
+   * Has the background thread flush, false if it was stopped.
+   */
+  private boolean requestFlush() {
+    try {
+      flusher.execute(this::flushQuietly);
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      logger.warn("Could not link " + size.get() + " entities to dataset, will retry", e);
+    }
+  }
+
+  /**
+   * The links of one run.
+   */
+  public class Run {
+
+    private final Queue<CompletableFuture<Void>> sent = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Queue a link, never waits for Weaver.
+     */
+    public void link(String key, ShallowEntity member) {
+      sent.add(DatasetLinker.this.link(key, member));
+    }
+
+    /**
+     * Has the links of this run sent, and waits for them only. Throws what
+     * the first failed link threw.
+     */
+    public void finish() {
+      if(sent.isEmpty()) {
+        return;
+      }
+      if(!requestFlush()) {
+        flushQuietly();
+      }
+
+      RuntimeException failure = null;
+      CompletableFuture<Void> link;
+      while((link = sent.poll()) != null) {
+        try {
+          AsyncWeaver.await(link);
+        } catch (RuntimeException e) {
+          if(failure == null) {
+            failure = e;
+          }
+        }
+      }
+      if(failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  private static class Link {
+    final String key;
+    final ShallowEntity member;
+    final CompletableFuture<Void> sent = new CompletableFuture<>();
+
+    Link(String key, ShallowEntity member) {
+      this.key = key;
+      this.member = member;
+    }
+  }
+}
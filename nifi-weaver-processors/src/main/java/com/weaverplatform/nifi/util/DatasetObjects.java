@@ -0,0 +1,128 @@
+package com.weaverplatform.nifi.util;
+
+import com.google.common.hash.Hashing;
+import com.weaverplatform.sdk.Entity;
+import com.weaverplatform.sdk.ShallowEntity;
+import com.weaverplatform.sdk.ShallowValue;
+import com.weaverplatform.sdk.Weaver;
+import com.weaverplatform.sdk.json.request.ReadPayload;
+import com.weaverplatform.sdk.json.request.UpdateEntityAttribute;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The objects collection of a dataset. It is either flat, with every object
+ * linked into it, or bucketed: it then links a fixed number of bucket
+ * collections, and every object is linked into the bucket its id hashes to,
+ * so no collection grows beyond its share of the dataset.
+ *
+ * A bucketed collection has the number of buckets as its "buckets"
+ * attribute, and links bucket i under "bucket-i".
+ */
+public class DatasetObjects {
+
+  public static final String BUCKETS = "buckets";
+
+  private final Entity collection;
+  private final Entity[] buckets;
+
+  private DatasetObjects(Entity collection, Entity[] buckets) {
+    this.collection = collection;
+    this.buckets = buckets;
+  }
+
+  /**
+   * The layout of an existing objects collection, read without its members.
+   */
+  public static DatasetObjects load(Weaver weaver, Entity collection) {
+    String fanOut = collection.getAttributes().get(BUCKETS);
+    if(fanOut == null) {
+      return new DatasetObjects(collection, null);
+    }
+
+    Entity[] buckets = new Entity[Integer.parseInt(fanOut)];
+    for(int i = 0; i < buckets.length; i++) {
+      ShallowEntity bucket = collection.getRelations().get(bucketKey(i));
+      if(bucket == null) {
+        throw new ProcessException("Dataset objects " + collection.getId() + " misses " + bucketKey(i));
+      }
+      buckets[i] = weaver.get(bucket.getId(), new ReadPayload.Opts(0));
+    }
+    return new DatasetObjects(collection, buckets);
+  }
+
+  /**
+   * This collection read again, with the members linked since.
+   */
+  public DatasetObjects reload(Weaver weaver) {
+    return load(weaver, weaver.get(collection.getId(), new ReadPayload.Opts(0)));
+  }
+
+  /**
+   * A new, empty objects collection with this many buckets.
+   */
+  public static DatasetObjects create(Weaver weaver, int fanOut) {
+    if(fanOut < 1) {
+      throw new ProcessException("A dataset needs at least 1 bucket, was " + fanOut);
+    }
+    Entity collection = weaver.collection();
+
+    Entity[] buckets = new Entity[fanOut];
+    for(int i = 0; i < fanOut; i++) {
+      buckets[i] = weaver.collection();
+      collection.linkEntity(bucketKey(i), buckets[i].toShallowEntity());
+    }
+    weaver.updateEntityAttribute(new UpdateEntityAttribute(collection.toShallowEntity(), BUCKETS, new ShallowValue(String.valueOf(fanOut), "")));
+
+    return new DatasetObjects(collection, buckets);
+  }
+
+  /**
+   * The collection to link an object with this id into.
+   */
+  public Entity collectionFor(String id) {
+    if(buckets == null) {
+      return collection;
+    }
+    return buckets[bucketOf(id, buckets.length)];
+  }
+
+  /**
+   * All objects in the dataset by id, read from the collection and every
+   * bucket.
+   */
+  public Map<String, ShallowEntity> members() {
+    Map<String, ShallowEntity> members = new HashMap<>();
+    if(buckets == null) {
+      members.putAll(collection.getRelations());
+    } else {
+      for(Entity bucket : buckets) {
+        members.putAll(bucket.getRelations());
+      }
+    }
+    return members;
+  }
+
+  public Entity getCollection() {
+    return collection;
+  }
+
+  public boolean isBucketed() {
+    return buckets != null;
+  }
+
+  public int getFanOut() {
+    return buckets == null ? 1 : buckets.length;
+  }
+
+  public static int bucketOf(String id, int fanOut) {
+    return (Hashing.murmur3_32().hashString(id, StandardCharsets.UTF_8).asInt() & Integer.MAX_VALUE) % fanOut;
+  }
+
+  public static String bucketKey(int bucket) {
+    return "bucket-" + bucket;
+  }
+}
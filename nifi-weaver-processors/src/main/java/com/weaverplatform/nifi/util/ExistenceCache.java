@@ -0,0 +1,83 @@
+package com.weaverplatform.nifi.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers which entities exist, to answer without asking Weaver.
+ *
+ * Recently seen entities are kept with their attributes as last seen or
+ * written. Every entity ever seen or created is also put in a Bloom filter.
+ * If this node is the only one writing to Weaver, and Weaver held nothing
+ * else when it started (e.g. it was wiped), an id that is not in the
+ * filter does not exist. Otherwise the filter can't tell, so it is only
+ * used when the caller says so.
+ */
+public class ExistenceCache {
+
+  public static final long DEFAULT_SIZE = 100000;
+  public static final long DEFAULT_BLOOM_SIZE = 1000000;
+  public static final double BLOOM_FPP = 0.01;
+
+  public enum Answer {
+    EXISTS, ABSENT, UNKNOWN
+  }
+
+  private final Cache<String, Map<String, String>> present;
+  private final ScalableBloomFilter seen;
+
+  public ExistenceCache(long maximumSize, long bloomSize) {
+    present = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .build();
+    seen = new ScalableBloomFilter(bloomSize, BLOOM_FPP);
+  }
+
+  /**
+   * Whether the entity exists, or UNKNOWN if Weaver should be asked.
+   * Entities are only known to be absent when the caller is the single
+   * writer to Weaver.
+   */
+  public Answer lookup(String id, boolean singleWriter) {
+    if(present.getIfPresent(id) != null) {
+      return Answer.EXISTS;
+    }
+    if(singleWriter && !seen.mightContain(id)) {
+      return Answer.ABSENT;
+    }
+    return Answer.UNKNOWN;
+  }
+
+  /**
+   * The attributes of an entity known to exist, as last seen or written, or
+   * null if it is not known to exist.
+   */
+  public Map<String, String> attributes(String id) {
+    return present.getIfPresent(id);
+  }
+
+  /**
+   * Remember that an entity exists with these attributes, after reading or
+   * writing it.
+   */
+  public void present(String id, Map<String, String> attributes) {
+    present.put(id, Collections.unmodifiableMap(new HashMap<>(attributes)));
+    seen.put(id);
+  }
+
+  /**
+   * Forget an entity that turned out not to exist.
+   */
+  public void absent(String id) {
+    present.invalidate(id);
+  }
+
+  public void clear() {
+    present.invalidateAll();
+    seen.clear();
+  }
+}
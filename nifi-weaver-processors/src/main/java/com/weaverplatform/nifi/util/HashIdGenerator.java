@@ -0,0 +1,31 @@
+package com.weaverplatform.nifi.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Name based (version 3) UUIDs of the content, the same on every node, so
+ * creating the same thing twice gives the same id.
+ */
+public class HashIdGenerator implements IdGenerator {
+
+  public static final String NAME = "content-hash";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public String generate(String content) {
+    if(content == null) {
+      throw new IllegalArgumentException("A content hash id needs content");
+    }
+    return UUID.nameUUIDFromBytes(content.getBytes(StandardCharsets.UTF_8)).toString();
+  }
+
+  @Override
+  public boolean isDeterministic() {
+    return true;
+  }
+}
@@ -0,0 +1,29 @@
+package com.weaverplatform.nifi.util;
+
+/**
+ * Creates the id of a new entity when none is given. Generators are found
+ * with a ServiceLoader, so another jar on the classpath can add one by
+ * listing it in META-INF/services/com.weaverplatform.nifi.util.IdGenerator.
+ * Implementations are shared by all threads.
+ */
+public interface IdGenerator {
+
+  /**
+   * The name to select this generator by in the 'Id Generator' property.
+   */
+  String getName();
+
+  /**
+   * A new id. The content identifies what the id is for: for a property its
+   * subject, predicate, object and source, otherwise the uuid of the
+   * FlowFile. Only deterministic generators use it, and they are only given
+   * the content of properties.
+   */
+  String generate(String content);
+
+  /**
+   * Whether the same content always gives the same id, so an entity with
+   * that id is the one that would be created.
+   */
+  boolean isDeterministic();
+}
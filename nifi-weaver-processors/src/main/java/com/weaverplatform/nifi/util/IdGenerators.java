@@ -0,0 +1,35 @@
+package com.weaverplatform.nifi.util;
+
+import org.apache.nifi.processor.exception.ProcessException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * All id generators on the classpath by name.
+ */
+public class IdGenerators {
+
+  public static final String DEFAULT = RandomIdGenerator.NAME;
+
+  private static final Map<String, IdGenerator> generators = new LinkedHashMap<>();
+
+  static {
+    for(IdGenerator generator : ServiceLoader.load(IdGenerator.class, IdGenerator.class.getClassLoader())) {
+      generators.put(generator.getName(), generator);
+    }
+  }
+
+  public static String[] names() {
+    return generators.keySet().toArray(new String[generators.size()]);
+  }
+
+  public static IdGenerator get(String name) {
+    IdGenerator generator = generators.get(name);
+    if(generator == null) {
+      throw new ProcessException("No id generator named " + name);
+    }
+    return generator;
+  }
+}
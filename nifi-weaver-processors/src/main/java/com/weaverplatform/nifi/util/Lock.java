@@ -1,18 +0,0 @@
-package com.weaverplatform.nifi.util;
-
-public class Lock {
-
-  private boolean isLocked = false;
-
-  public synchronized void lock()  throws InterruptedException {
-    while(isLocked) {
-      wait();
-    }
-    isLocked = true;
-  }
-
-  public synchronized void unlock(){
-    isLocked = false;
-    notify();
-  }
-}
\ No newline at end of file
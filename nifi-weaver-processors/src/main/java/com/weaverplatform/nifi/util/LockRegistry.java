@@ -1,35 +1,100 @@
 package com.weaverplatform.nifi.util;
 
-import java.util.HashMap;
-import java.util.Map;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Makes sure an action on an object is done once on this node, also when
+ * concurrent tasks try it at the same time. Only tasks working on the same
+ * action and object wait for each other.
+ *
+ * <pre>
+ * if(!locks.request("created", hash)) {
+ *   try {
+ *     create();
+ *   } catch (RuntimeException e) {
+ *     locks.cancel("created", hash);
+ *     throw e;
+ *   }
+ *   locks.release("created", hash);
+ * }
+ * </pre>
+ */
 public class LockRegistry {
 
-  private static final Map<String, Boolean> statusRegistry = new HashMap();
-  private static final Map<String, Lock> lockRegistry = new HashMap();
-
-  public static boolean request(String action, String objectHash) throws InterruptedException {
-
-//    String key = action + objectHash;
-//
-//    if(!lockRegistry.containsKey(key)) {
-//      lockRegistry.put(key, new Lock());
-//    }
-//    lockRegistry.get(key).lock();
-//
-//    if(!statusRegistry.containsKey(key)) {
-//      statusRegistry.put(key, false);
-//    }
-//    return statusRegistry.get(key);
-    return false;
+  public static final long DEFAULT_SIZE = 100000;
+
+  // Actions in progress, the latch opens when they are released or cancelled
+  private final ConcurrentMap<String, CountDownLatch> lockRegistry = new ConcurrentHashMap<>();
+
+  // Actions done, bounded so old ones are forgotten
+  private final Cache<String, Boolean> statusRegistry = CacheBuilder.newBuilder()
+      .maximumSize(DEFAULT_SIZE)
+      .build();
+
+  /**
+   * Returns true if the action was already done. Otherwise the caller now
+   * owns it and should either release or cancel it. Waits while another
+   * task owns it.
+   */
+  public boolean request(String action, String objectHash) throws InterruptedException {
+
+    String key = action + objectHash;
+
+    while(true) {
+      if(statusRegistry.getIfPresent(key) != null) {
+        return true;
+      }
+
+      CountDownLatch latch = new CountDownLatch(1);
+      CountDownLatch owner = lockRegistry.putIfAbsent(key, latch);
+      if(owner == null) {
+
+        // It could have been released between the check and taking ownership
+        if(statusRegistry.getIfPresent(key) != null) {
+          lockRegistry.remove(key, latch);
+          latch.countDown();
+          return true;
+        }
+        return false;
+      }
+      owner.await();
+    }
   }
 
-  public static void release(String action, String objectHash) {
+  /**
+   * Marks an owned action as done.
+   */
+  public void release(String action, String objectHash) {
+
+    String key = action + objectHash;
+
+    statusRegistry.put(key, true);
+    unlock(key);
+  }
+
+  /**
+   * Gives up an owned action without it being done, so another task can try.
+   */
+  public void cancel(String action, String objectHash) {
+    unlock(action + objectHash);
+  }
+
+  /**
+   * Forgets all actions that were done, e.g. after Weaver was wiped.
+   */
+  public void clear() {
+    statusRegistry.invalidateAll();
+  }
 
-//    String key = action + objectHash;
-//
-//    statusRegistry.put(key, true);
-//    lockRegistry.get(key).unlock();
-//    lockRegistry.remove(key);
+  private void unlock(String key) {
+    CountDownLatch latch = lockRegistry.remove(key);
+    if(latch != null) {
+      latch.countDown();
+    }
   }
 }
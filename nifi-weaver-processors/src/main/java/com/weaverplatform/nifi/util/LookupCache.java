@@ -0,0 +1,107 @@
+package com.weaverplatform.nifi.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers which subjects have a property with a given predicate and
+ * object, as found by a query. Answers expire after a while, so properties
+ * written by other nodes show up eventually; properties written on this
+ * node invalidate the answer right away.
+ *
+ * A query that was running while its answer was invalidated may have missed
+ * the new property. Queries take a stamp before they start and only store
+ * their answer if nothing invalidated it after that stamp.
+ */
+public class LookupCache {
+
+  public static final long DEFAULT_SIZE = 10000;
+  public static final long DEFAULT_TTL = 60;
+
+  private final Cache<String, List<String>> subjects;
+
+  // The stamp of the last invalidation of each answer, and the latest stamp
+  // of those no longer remembered
+  private final AtomicLong clock = new AtomicLong();
+  private final Cache<String, Long> invalidated;
+  private final AtomicLong forgotten = new AtomicLong();
+
+  public LookupCache(long maximumSize, long ttlSeconds) {
+    subjects = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .build();
+    invalidated = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .<String, Long>removalListener(removal -> {
+          if(removal.wasEvicted()) {
+            forgotten.accumulateAndGet(removal.getValue(), Math::max);
+          }
+        })
+        .build();
+  }
+
+  /**
+   * The subjects found before, or null if they have to be looked up.
+   */
+  public List<String> get(String predicate, String object) {
+    return subjects.getIfPresent(key(predicate, object));
+  }
+
+  public void put(String predicate, String object, List<String> found) {
+    subjects.put(key(predicate, object), found);
+  }
+
+  /**
+   * The stamp to take before querying, for {@link #putIfCurrent}.
+   */
+  public long stamp() {
+    return clock.get();
+  }
+
+  /**
+   * Stores the subjects a query found, unless the answer was invalidated
+   * after the stamp was taken.
+   */
+  public void putIfCurrent(String predicate, String object, List<String> found, long stamp) {
+    String key = key(predicate, object);
+    if(invalidatedSince(key, stamp)) {
+      return;
+    }
+    subjects.put(key, found);
+
+    // An invalidation that checked in between did not see this answer yet
+    if(invalidatedSince(key, stamp)) {
+      subjects.invalidate(key);
+    }
+  }
+
+  /**
+   * Forget the subjects of a predicate and object a property was written for.
+   */
+  public void invalidate(String predicate, String object) {
+    String key = key(predicate, object);
+    invalidated.put(key, clock.incrementAndGet());
+    subjects.invalidate(key);
+  }
+
+  public void clear() {
+    forgotten.accumulateAndGet(clock.incrementAndGet(), Math::max);
+    subjects.invalidateAll();
+    invalidated.invalidateAll();
+  }
+
+  private boolean invalidatedSince(String key, long stamp) {
+    Long last = invalidated.getIfPresent(key);
+    return (last != null && last > stamp) || forgotten.get() > stamp;
+  }
+
+  private static String key(String predicate, String object) {
+    return predicate + '\u0000' + object;
+  }
+}
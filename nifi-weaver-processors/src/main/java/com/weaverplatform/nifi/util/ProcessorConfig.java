@@ -0,0 +1,164 @@
+package com.weaverplatform.nifi.util;
+
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.ControllerService;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The properties of a processor as they were when it was scheduled: values
+ * (with their defaults), parsed booleans and integers, and comma separated
+ * lists already split, and controller services resolved. A trigger then
+ * only looks up FlowFile attributes.
+ */
+public final class ProcessorConfig {
+
+  private final Map<PropertyDescriptor, String> values;
+  private final Map<PropertyDescriptor, Boolean> booleans;
+  private final Map<PropertyDescriptor, Integer> integers;
+  private final Map<PropertyDescriptor, List<String>> lists;
+  private final Map<PropertyDescriptor, ControllerService> services;
+
+  private ProcessorConfig(Map<PropertyDescriptor, String> values, Map<PropertyDescriptor, Boolean> booleans,
+                          Map<PropertyDescriptor, Integer> integers, Map<PropertyDescriptor, List<String>> lists,
+                          Map<PropertyDescriptor, ControllerService> services) {
+    this.values = values;
+    this.booleans = booleans;
+    this.integers = integers;
+    this.lists = lists;
+    this.services = services;
+  }
+
+  /**
+   * Reads every property of the context once, including dynamic ones.
+   */
+  public static ProcessorConfig compile(ProcessContext context) {
+    Map<PropertyDescriptor, String> values = new HashMap<>();
+    Map<PropertyDescriptor, Boolean> booleans = new HashMap<>();
+    Map<PropertyDescriptor, Integer> integers = new HashMap<>();
+    Map<PropertyDescriptor, List<String>> lists = new HashMap<>();
+    Map<PropertyDescriptor, ControllerService> services = new HashMap<>();
+
+    for(PropertyDescriptor descriptor : context.getProperties().keySet()) {
+      String value = context.getProperty(descriptor).getValue();
+      if(value == null) {
+        continue;
+      }
+      values.put(descriptor, value);
+
+      String trimmed = value.trim();
+      if("true".equalsIgnoreCase(trimmed) || "false".equalsIgnoreCase(trimmed)) {
+        booleans.put(descriptor, Boolean.parseBoolean(trimmed));
+      }
+      try {
+        integers.put(descriptor, Integer.parseInt(trimmed));
+      } catch (NumberFormatException e) {
+        // Not a number, fine unless it is asked for as one
+      }
+
+      List<String> list = new ArrayList<>();
+      for(String item : value.split(",")) {
+        list.add(item.trim());
+      }
+      lists.put(descriptor, Collections.unmodifiableList(list));
+
+      if(descriptor.getControllerServiceDefinition() != null) {
+        ControllerService service = context.getProperty(descriptor).asControllerService();
+        if(service != null) {
+          services.put(descriptor, service);
+        }
+      }
+    }
+
+    return new ProcessorConfig(values, booleans, integers, lists, services);
+  }
+
+  public boolean isSet(PropertyDescriptor descriptor) {
+    return values.containsKey(descriptor);
+  }
+
+  /**
+   * The value, or null if not set.
+   */
+  public String get(PropertyDescriptor descriptor) {
+    return values.get(descriptor);
+  }
+
+  /**
+   * The value as boolean, or the fallback if not set.
+   */
+  public boolean asBoolean(PropertyDescriptor descriptor, boolean fallback) {
+    if(!isSet(descriptor)) {
+      return fallback;
+    }
+    Boolean value = booleans.get(descriptor);
+    if(value == null) {
+      throw new ProcessException(descriptor.getName() + " is not true or false: " + get(descriptor));
+    }
+    return value;
+  }
+
+  /**
+   * The value as integer, or null if not set.
+   */
+  public Integer asInteger(PropertyDescriptor descriptor) {
+    if(!isSet(descriptor)) {
+      return null;
+    }
+    Integer value = integers.get(descriptor);
+    if(value == null) {
+      throw new ProcessException(descriptor.getName() + " is not a number: " + get(descriptor));
+    }
+    return value;
+  }
+
+  /**
+   * The comma separated items of the value, trimmed. Empty if not set.
+   */
+  public List<String> asList(PropertyDescriptor descriptor) {
+    List<String> list = lists.get(descriptor);
+    return list == null ? Collections.emptyList() : list;
+  }
+
+  /**
+   * The controller service the property points to, or null if not set.
+   */
+  public <T extends ControllerService> T asControllerService(PropertyDescriptor descriptor, Class<T> type) {
+    ControllerService service = services.get(descriptor);
+    if(service == null) {
+      return null;
+    }
+    if(!type.isInstance(service)) {
+      throw new ProcessException(descriptor.getName() + " is not a " + type.getSimpleName() + ": " + get(descriptor));
+    }
+    return type.cast(service);
+  }
+
+  /**
+   * The value of the FlowFile attribute named by the attribute property if
+   * that is set, else the value of the static property, else the fallback.
+   */
+  public String valueFromOptions(FlowFile flowFile, PropertyDescriptor attributeValue, PropertyDescriptor staticValue, String fallback) throws ProcessException {
+
+    String attributeName = values.get(attributeValue);
+    if(attributeName != null) {
+      return flowFile.getAttribute(attributeName);
+    }
+    String value = values.get(staticValue);
+    if(value != null) {
+      return value;
+    }
+
+    if(fallback != null) {
+      return fallback;
+    }
+    throw new ProcessException("No attribute value could be found for "+attributeValue+" or "+staticValue);
+  }
+}
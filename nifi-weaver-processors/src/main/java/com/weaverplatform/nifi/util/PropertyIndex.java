@@ -0,0 +1,67 @@
+package com.weaverplatform.nifi.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the properties of recently used subjects: per subject id, per
+ * predicate, the id (or value) of every object mapped to the id of the
+ * property. A subject is either indexed with all its properties or not at
+ * all, so a missing predicate on an indexed subject means there is none.
+ */
+public class PropertyIndex {
+
+  public static final long DEFAULT_SIZE = 10000;
+
+  private final Cache<String, ConcurrentMap<String, ConcurrentMap<String, String>>> subjects;
+
+  public PropertyIndex(long maximumSize) {
+    subjects = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .build();
+  }
+
+  /**
+   * The properties of the subject per predicate, or null if the subject is
+   * not indexed.
+   */
+  public ConcurrentMap<String, ConcurrentMap<String, String>> get(String subjectId) {
+    return subjects.getIfPresent(subjectId);
+  }
+
+  /**
+   * Index all properties of a subject at once.
+   */
+  public void put(String subjectId, ConcurrentMap<String, ConcurrentMap<String, String>> predicates) {
+    subjects.put(subjectId, predicates);
+  }
+
+  /**
+   * Index a subject that was just created and so has no properties yet.
+   */
+  public void putEmpty(String subjectId) {
+    subjects.put(subjectId, new ConcurrentHashMap<>());
+  }
+
+  /**
+   * Write through a property that was just created. Does nothing if the
+   * subject is not indexed, as only complete subjects can be.
+   */
+  public void add(String subjectId, String predicate, String object, String propertyId) {
+    ConcurrentMap<String, ConcurrentMap<String, String>> predicates = subjects.getIfPresent(subjectId);
+    if(predicates != null) {
+      predicates.computeIfAbsent(predicate, p -> new ConcurrentHashMap<>()).put(object, propertyId);
+    }
+  }
+
+  public void invalidate(String subjectId) {
+    subjects.invalidate(subjectId);
+  }
+
+  public void invalidateAll() {
+    subjects.invalidateAll();
+  }
+}
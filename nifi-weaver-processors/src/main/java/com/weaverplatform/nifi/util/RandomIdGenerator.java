@@ -0,0 +1,32 @@
+package com.weaverplatform.nifi.util;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Random (version 4) UUIDs. Unlike UUID.randomUUID() they come from a
+ * ThreadLocalRandom instead of one shared SecureRandom, so threads don't
+ * wait for each other. They are unique, not unguessable.
+ */
+public class RandomIdGenerator implements IdGenerator {
+
+  public static final String NAME = "random";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public String generate(String content) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long mostSigBits = (random.nextLong() & ~0xF000L) | 0x4000L;
+    long leastSigBits = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+    return new UUID(mostSigBits, leastSigBits).toString();
+  }
+
+  @Override
+  public boolean isDeterministic() {
+    return false;
+  }
+}
@@ -0,0 +1,88 @@
+package com.weaverplatform.nifi.util;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A Bloom filter of strings that grows: when the current filter holds as
+ * many elements as it was made for, a new one twice as large with half the
+ * false positive rate is added. The first filter gets half the requested
+ * rate, so the combined rate stays near the requested one however many
+ * elements are put in.
+ *
+ * Checks take no lock: the filters are published as an immutable list,
+ * replaced when a filter is added. Puts are serialized, as a Guava
+ * BloomFilter is not safe for concurrent puts.
+ */
+public class ScalableBloomFilter {
+
+  private final long initialCapacity;
+  private final double initialFpp;
+
+  // Written again after every put, so a check that reads it sees the bits of the puts before
+  private volatile List<BloomFilter<CharSequence>> filters;
+
+  // Only used by puts, under the lock
+  private long capacity;
+  private double fpp;
+  private long count;
+
+  public ScalableBloomFilter(long initialCapacity, double fpp) {
+    this.initialCapacity = initialCapacity;
+    this.initialFpp = fpp;
+    clear();
+  }
+
+  public boolean mightContain(String element) {
+    for(BloomFilter<CharSequence> filter : filters) {
+      if(filter.mightContain(element)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public void put(String element) {
+
+    // Most puts are of elements seen before, those don't take the lock
+    if(mightContain(element)) {
+      return;
+    }
+    synchronized (this) {
+      List<BloomFilter<CharSequence>> current = filters;
+      if(mightContain(element)) {
+        return;
+      }
+      if(count >= capacity) {
+        capacity *= 2;
+        fpp /= 2;
+        count = 0;
+        List<BloomFilter<CharSequence>> grown = new ArrayList<>(current);
+        grown.add(BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), capacity, fpp));
+        current = Collections.unmodifiableList(grown);
+      }
+      current.get(current.size() - 1).put(element);
+      count++;
+      filters = current;
+    }
+  }
+
+  public synchronized void clear() {
+    capacity = initialCapacity;
+    fpp = initialFpp / 2;
+    count = 0;
+    filters = Collections.singletonList(BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), capacity, fpp));
+  }
+
+  /**
+   * The number of filters, one more every time it grew.
+   */
+  public int size() {
+    return filters.size();
+  }
+}
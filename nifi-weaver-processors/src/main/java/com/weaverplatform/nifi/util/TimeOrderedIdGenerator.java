@@ -0,0 +1,56 @@
+package com.weaverplatform.nifi.util;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Time ordered (version 7) UUIDs: the first 48 bits are the milliseconds
+ * since the epoch, so ids created around the same time are close together
+ * in an index, and sorting them sorts by creation time to the millisecond.
+ *
+ * Within a thread the next 12 bits count up, so the ids of one thread are
+ * strictly increasing. The last 62 bits are random.
+ */
+public class TimeOrderedIdGenerator implements IdGenerator {
+
+  public static final String NAME = "time-ordered";
+
+  // Per thread the last timestamp and the sequence number within it
+  private final ThreadLocal<long[]> state = ThreadLocal.withInitial(() -> new long[2]);
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public String generate(String content) {
+    long[] last = state.get();
+
+    long timestamp = System.currentTimeMillis();
+    long sequence;
+    if(timestamp > last[0]) {
+      sequence = 0;
+    } else {
+
+      // Same millisecond or the clock went back, count on from the last id
+      timestamp = last[0];
+      sequence = last[1] + 1;
+      if(sequence > 0xFFF) {
+        timestamp++;
+        sequence = 0;
+      }
+    }
+    last[0] = timestamp;
+    last[1] = sequence;
+
+    long mostSigBits = (timestamp << 16) | 0x7000L | sequence;
+    long leastSigBits = (ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+    return new UUID(mostSigBits, leastSigBits).toString();
+  }
+
+  @Override
+  public boolean isDeterministic() {
+    return false;
+  }
+}
@@ -0,0 +1,135 @@
+package com.weaverplatform.nifi.util;
+
+import com.weaverplatform.sdk.Weaver;
+import com.weaverplatform.sdk.websocket.WeaverSocket;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed number of Weaver connections to one url, each over its own
+ * WeaverSocket. Every thread is pinned to one connection (handed out
+ * round-robin on its first call), so checking out a connection never
+ * takes a lock.
+ */
+public class WeaverPool {
+
+  public static final int DEFAULT_SIZE = 4;
+
+  // How long closing waits for requests in flight
+  private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+  private static final Logger logger = LoggerFactory.getLogger(WeaverPool.class);
+
+  private final String url;
+  private final AsyncWeaver[] connections;
+  private final WeaverSocket[] sockets;
+  private final ExecutorService executor;
+  private final AtomicInteger next = new AtomicInteger();
+
+  private final ThreadLocal<AsyncWeaver> pinned = new ThreadLocal<AsyncWeaver>() {
+    @Override
+    protected AsyncWeaver initialValue() {
+      return connections[(next.getAndIncrement() & Integer.MAX_VALUE) % connections.length];
+    }
+  };
+
+  public WeaverPool(String url, int size) {
+    this(url, size, AsyncWeaver.DEFAULT_WINDOW);
+  }
+
+  public WeaverPool(String url, int size, int window) {
+    if(size < 1) {
+      throw new ProcessException("Weaver pool size should be at least 1, was " + size);
+    }
+    this.url = url;
+    this.connections = new AsyncWeaver[size];
+    this.sockets = new WeaverSocket[size];
+
+    // Every request in any window can run at the same time
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(size * window, runnable -> {
+      Thread thread = new Thread(runnable, "weaver-request-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    try {
+      for(int i = 0; i < size; i++) {
+        sockets[i] = socket(url);
+        Weaver weaver = new Weaver("ins:");
+        weaver.connect(sockets[i]);
+        connections[i] = new AsyncWeaver(weaver, window, executor);
+      }
+    } catch (RuntimeException e) {
+      executor.shutdown();
+      disconnect();
+      throw e;
+    }
+  }
+
+  /**
+   * The connection pinned to the calling thread.
+   */
+  public Weaver get() {
+    return pinned.get().getWeaver();
+  }
+
+  /**
+   * The request window on the connection pinned to the calling thread.
+   */
+  public AsyncWeaver getAsync() {
+    return pinned.get();
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public int size() {
+    return connections.length;
+  }
+
+  /**
+   * Lets the requests in flight finish, then disconnects every connection.
+   */
+  public void close() {
+    executor.shutdown();
+    try {
+      if(!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        logger.warn("Requests to " + url + " still running after " + CLOSE_TIMEOUT_SECONDS + " seconds, disconnecting anyway");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    disconnect();
+  }
+
+  private void disconnect() {
+    for(WeaverSocket socket : sockets) {
+      if(socket == null) {
+        continue;
+      }
+      try {
+        socket.disconnect();
+      } catch (RuntimeException e) {
+        logger.warn("Could not disconnect from " + url, e);
+      }
+    }
+  }
+
+  private static WeaverSocket socket(String url) {
+    try {
+      return new WeaverSocket(new URI(url));
+    } catch (URISyntaxException e) {
+      throw new ProcessException(e);
+    }
+  }
+}
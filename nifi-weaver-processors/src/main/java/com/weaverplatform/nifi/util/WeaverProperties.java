@@ -4,6 +4,20 @@ package com.weaverplatform.nifi.util;
  * @author Mohamad Alamili
  */
 public class WeaverProperties {
-  public static final String URL     = "weaver.url";
-  public static final String DATASET = "weaver.global.dataset";
+  public static final String URL       = "weaver.url";
+  public static final String DATASET   = "weaver.global.dataset";
+  public static final String POOL_SIZE = "weaver.pool.size";
+  public static final String WINDOW    = "weaver.pool.window";
+
+  public static final String BUCKETS       = "weaver.dataset.buckets";
+  public static final String LINK_BATCH    = "weaver.dataset.link.batch";
+  public static final String LINK_INTERVAL = "weaver.dataset.link.interval";
+  public static final String OBJECTS_RECHECK = "weaver.dataset.objects.recheck";
+
+  public static final String PROPERTY_INDEX_SIZE = "weaver.cache.properties.size";
+  public static final String COLLECTIONS_SIZE    = "weaver.cache.collections.size";
+  public static final String EXISTENCE_CACHE_SIZE = "weaver.cache.existence.size";
+  public static final String EXISTENCE_BLOOM_SIZE = "weaver.cache.existence.bloom.size";
+  public static final String LOOKUP_CACHE_SIZE    = "weaver.cache.lookups.size";
+  public static final String LOOKUP_CACHE_TTL     = "weaver.cache.lookups.ttl";
 }
@@ -0,0 +1,169 @@
+package com.weaverplatform.nifi.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.weaverplatform.sdk.Entity;
+import com.weaverplatform.sdk.Weaver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * What the processors on a node remember of one Weaver instance: its
+ * datasets, the properties and existence of its entities, what is being
+ * created in it and lookups done in it. Processors writing to different
+ * Weaver urls each get their own, so nothing of one leaks into the other.
+ */
+public class WeaverScope {
+
+  private final String url;
+
+  private final ConcurrentMap<String, CompletableFuture<DatasetHandle>> datasets = new ConcurrentHashMap<>();
+  private final PropertyIndex index;
+  private final Cache<String, Entity> propertiesCollections;
+  private final ExistenceCache existence;
+  private final LockRegistry locks = new LockRegistry();
+  private final LookupCache lookups;
+  private volatile String claimGeneration;
+
+  public WeaverScope(String url, long indexSize, long collectionsSize, long existenceSize, long bloomSize,
+                     long lookupSize, long lookupTtlSeconds) {
+    this.url = url;
+    this.index = new PropertyIndex(indexSize);
+    this.propertiesCollections = CacheBuilder.newBuilder()
+        .maximumSize(collectionsSize)
+        .build();
+    this.existence = new ExistenceCache(existenceSize, bloomSize);
+    this.lookups = new LookupCache(lookupSize, lookupTtlSeconds);
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * The handle of a dataset, read or created once. Callers that ask for a
+   * dataset being read wait for that read instead of reading it too.
+   */
+  public DatasetHandle getDatasetHandle(Weaver weaver, String datasetId, int buckets) {
+    CompletableFuture<DatasetHandle> handle = datasets.get(datasetId);
+    if(handle == null) {
+      CompletableFuture<DatasetHandle> loading = new CompletableFuture<>();
+      handle = datasets.putIfAbsent(datasetId, loading);
+      if(handle == null) {
+        try {
+          loading.complete(DatasetHandle.load(weaver, datasetId, buckets));
+        } catch (RuntimeException e) {
+          datasets.remove(datasetId, loading);
+          loading.completeExceptionally(e);
+        }
+        handle = loading;
+      }
+    }
+    return AsyncWeaver.await(handle);
+  }
+
+  /**
+   * The handle of a dataset if it was loaded, else null.
+   */
+  public DatasetHandle loadedDataset(String datasetId) {
+    CompletableFuture<DatasetHandle> handle = datasets.get(datasetId);
+    if(handle != null && handle.isDone() && !handle.isCompletedExceptionally()) {
+      return handle.join();
+    }
+    return null;
+  }
+
+  public List<DatasetHandle> loadedDatasets() {
+    List<DatasetHandle> loaded = new ArrayList<>();
+    for(String datasetId : datasets.keySet()) {
+      DatasetHandle handle = loadedDataset(datasetId);
+      if(handle != null) {
+        loaded.add(handle);
+      }
+    }
+    return loaded;
+  }
+
+  /**
+   * Sends the pending links of the dataset and forgets it, so it is read
+   * again on next use.
+   */
+  public void forgetDataset(String datasetId) {
+    CompletableFuture<DatasetHandle> handle = datasets.remove(datasetId);
+    if(handle != null && handle.isDone() && !handle.isCompletedExceptionally()) {
+      handle.join().close();
+    }
+  }
+
+  public void forgetDatasets() {
+    for(String datasetId : datasets.keySet()) {
+      forgetDataset(datasetId);
+    }
+  }
+
+  /**
+   * Forgets everything, for when the instance was wiped. Links still queued
+   * are dropped, as what they link to is gone.
+   */
+  public void forgetAll() {
+    for(String datasetId : datasets.keySet()) {
+      CompletableFuture<DatasetHandle> handle = datasets.remove(datasetId);
+      if(handle != null && handle.isDone() && !handle.isCompletedExceptionally()) {
+        handle.join().discard();
+      }
+    }
+    forgetEntities();
+  }
+
+  public PropertyIndex getIndex() {
+    return index;
+  }
+
+  /**
+   * The properties collection of recently used subjects, by subject id.
+   */
+  public Cache<String, Entity> getPropertiesCollections() {
+    return propertiesCollections;
+  }
+
+  public ExistenceCache getExistence() {
+    return existence;
+  }
+
+  public LockRegistry getLocks() {
+    return locks;
+  }
+
+  public LookupCache getLookups() {
+    return lookups;
+  }
+
+  /**
+   * The generation of distributed cache claims last seen for this instance,
+   * null if it was not read yet.
+   */
+  public String getClaimGeneration() {
+    return claimGeneration;
+  }
+
+  public void setClaimGeneration(String claimGeneration) {
+    this.claimGeneration = claimGeneration;
+  }
+
+  /**
+   * Forgets everything about the entities of this instance, for when it was
+   * wiped.
+   */
+  public void forgetEntities() {
+    index.invalidateAll();
+    propertiesCollections.invalidateAll();
+    locks.clear();
+    existence.clear();
+    lookups.clear();
+    claimGeneration = null;
+  }
+}
@@ -6,6 +6,7 @@ import com.weaverplatform.sdk.Weaver;
 import com.weaverplatform.sdk.json.request.ReadPayload;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
 import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
@@ -27,6 +28,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 
+@SupportsBatching
 @Tags({"weaver, create, view, filter"})
 @CapabilityDescription("Create a View Filter object")
 @SeeAlso({})
@@ -79,33 +81,34 @@ public class CreateFilter extends FlowFileProcessor {
     descriptors.add(PREDICATE_STATIC);
     descriptors.add(ATTRIBUTE_NAME_FOR_FILTER_ID);
     
+    descriptors.add(BATCH_SIZE);
     this.properties = Collections.unmodifiableList(descriptors);
     this.relationships = new AtomicReference<>(relationshipSet);
   }
 
   @Override
   public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-    
     Weaver weaver = getWeaver();
-
-    ProcessorLog log  = this.getLogger();
-    FlowFile flowFile = session.get();
-    if (flowFile == null) {
-      return;
+    for(FlowFile flowFile : getBatch(context, session)) {
+      onTrigger(context, session, weaver, flowFile);
     }
-    
+  }
+
+  private void onTrigger(final ProcessContext context, final ProcessSession session, Weaver weaver, FlowFile flowFile) throws ProcessException {
+    final ProcessorLog log = this.getLogger();
+
     // Get the View entity by ID
-    if(!context.getProperty(VIEW_ID_ATTRIBUTE).isSet()) {
+    if(!config(context).isSet(VIEW_ID_ATTRIBUTE)) {
       throw new ProcessException("No attribute value could be found for the ID");
     }
-    String viewId = flowFile.getAttribute(context.getProperty(VIEW_ID_ATTRIBUTE).getValue());
+    String viewId = flowFile.getAttribute(config(context).get(VIEW_ID_ATTRIBUTE));
     Entity view = weaver.get(viewId, new ReadPayload.Opts(1));
 
     // Prepare filter attributes
     ConcurrentMap<String, String> attributes = new ConcurrentHashMap<>();
-    attributes.put("label",     context.getProperty(LABEL_STATIC).getValue());
-    attributes.put("celltype",  context.getProperty(CELLTYPE_STATIC).getValue());
-    attributes.put("predicate", context.getProperty(PREDICATE_STATIC).getValue());
+    attributes.put("label",     config(context).get(LABEL_STATIC));
+    attributes.put("celltype",  config(context).get(CELLTYPE_STATIC));
+    attributes.put("predicate", config(context).get(PREDICATE_STATIC));
 
     // Create filter
     Entity filter = weaver.add(attributes, "$FILTER");
@@ -118,8 +121,8 @@ public class CreateFilter extends FlowFileProcessor {
     filters.linkEntity(filter.getId(), filter.toShallowEntity());
 
     // Pass ID of this filter as attribute in flowfile
-    if(context.getProperty(ATTRIBUTE_NAME_FOR_FILTER_ID).isSet()) {
-      String attributeNameForId = context.getProperty(ATTRIBUTE_NAME_FOR_FILTER_ID).getValue();
+    if(config(context).isSet(ATTRIBUTE_NAME_FOR_FILTER_ID)) {
+      String attributeNameForId = config(context).get(ATTRIBUTE_NAME_FOR_FILTER_ID);
       flowFile = session.putAttribute(flowFile, attributeNameForId, filter.getId());
     }
     
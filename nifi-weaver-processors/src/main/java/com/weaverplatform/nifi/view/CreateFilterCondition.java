@@ -6,6 +6,7 @@ import com.weaverplatform.sdk.Weaver;
 import com.weaverplatform.sdk.json.request.ReadPayload;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
 import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
@@ -26,6 +27,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 
+@SupportsBatching
 @Tags({"weaver, create, view, filter, condition"})
 @CapabilityDescription("Create a View Filter Condition object")
 @SeeAlso({})
@@ -78,49 +80,49 @@ public class CreateFilterCondition extends FlowFileProcessor {
     descriptors.add(CONDITION_PATTERN);
     descriptors.add(ATTRIBUTE_NAME_FOR_CONDITION_ID);
     
+    descriptors.add(BATCH_SIZE);
     this.properties = Collections.unmodifiableList(descriptors);
     this.relationships = new AtomicReference<>(relationshipSet);
   }
 
   @Override
   public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-    
     Weaver weaver = getWeaver();
-
-    FlowFile flowFile = session.get();
-    if (flowFile == null) {
-      return;
+    for(FlowFile flowFile : getBatch(context, session)) {
+      onTrigger(context, session, weaver, flowFile);
     }
-    
+  }
+
+  private void onTrigger(final ProcessContext context, final ProcessSession session, Weaver weaver, FlowFile flowFile) throws ProcessException {
     // Get the Filter entity by ID
-    if(!context.getProperty(FILTER_ID_ATTRIBUTE).isSet()) {
+    if(!config(context).isSet(FILTER_ID_ATTRIBUTE)) {
       throw new ProcessException("No attribute value could be found for the ID");
     }
-    String filterId = flowFile.getAttribute(context.getProperty(FILTER_ID_ATTRIBUTE).getValue());
+    String filterId = flowFile.getAttribute(config(context).get(FILTER_ID_ATTRIBUTE));
     Entity filter = weaver.get(filterId, new ReadPayload.Opts(1));
     
-    String conditionType = context.getProperty(CONDITION_TYPE_STATIC).getValue();
+    String conditionType = config(context).get(CONDITION_TYPE_STATIC);
 
     // Prepare condition attributes
     ConcurrentMap<String, String> attributes = new ConcurrentHashMap<>();
     attributes.put("conditiontype", conditionType);
-    attributes.put("operation", context.getProperty(OPERATION_STATIC).getValue());
+    attributes.put("operation", config(context).get(OPERATION_STATIC));
 
     
     
     if("string".equals(conditionType)) {
       // Link to the string   
-      attributes.put("value", context.getProperty(CONDITION_PATTERN).getValue());
+      attributes.put("value", config(context).get(CONDITION_PATTERN));
     }
     
     else if("individual".equals(conditionType)) {
       // Link to the individual   
-      attributes.put("individual", context.getProperty(CONDITION_PATTERN).getValue());
+      attributes.put("individual", config(context).get(CONDITION_PATTERN));
     }
     
     else if("view".equals(conditionType)) {
       // Link to the view   
-      attributes.put("view", context.getProperty(CONDITION_PATTERN).getValue());
+      attributes.put("view", config(context).get(CONDITION_PATTERN));
     }
     else {
       throw new ProcessException("No supported conditiontype set (string, individual or view)!");
@@ -134,8 +136,8 @@ public class CreateFilterCondition extends FlowFileProcessor {
     conditions.linkEntity(condition.getId(), condition.toShallowEntity());
 
     // Pass ID of this condition as attribute in flowfile
-    if(context.getProperty(ATTRIBUTE_NAME_FOR_CONDITION_ID).isSet()) {
-      String attributeNameForId = context.getProperty(ATTRIBUTE_NAME_FOR_CONDITION_ID).getValue();
+    if(config(context).isSet(ATTRIBUTE_NAME_FOR_CONDITION_ID)) {
+      String attributeNameForId = config(context).get(ATTRIBUTE_NAME_FOR_CONDITION_ID);
       flowFile = session.putAttribute(flowFile, attributeNameForId, condition.getId());
     }
     
@@ -6,6 +6,7 @@ import com.weaverplatform.sdk.EntityType;
 import com.weaverplatform.sdk.Weaver;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
 import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
@@ -27,6 +28,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 
+@SupportsBatching
 @Tags({"weaver, create, view"})
 @CapabilityDescription("Create a View object")
 @SeeAlso({})
@@ -34,8 +36,7 @@ import java.util.concurrent.atomic.AtomicReference;
 @WritesAttributes({@WritesAttribute(attribute="", description="")})
 public class CreateView extends FlowFileProcessor {
 
-  Entity datasetViews;
-  
+
   public static final PropertyDescriptor NAME_ATTRIBUTE = new PropertyDescriptor
     .Builder().name("Name Attribute")
     .description("Look for a FlowFile attribute to set the name.")
@@ -56,23 +57,25 @@ public class CreateView extends FlowFileProcessor {
     
     descriptors.add(NAME_ATTRIBUTE);
     descriptors.add(NAME_STATIC);
+    descriptors.add(DATASET_ATTRIBUTE);
     
+    descriptors.add(BATCH_SIZE);
     this.properties = Collections.unmodifiableList(descriptors);
     this.relationships = new AtomicReference<>(relationshipSet);
   }
 
   @Override
   public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-    
     Weaver weaver = getWeaver();
+    for(FlowFile flowFile : getBatch(context, session)) {
+      onTrigger(context, session, weaver, flowFile);
+    }
+  }
 
-    datasetViews = getDatasetViews();
+  private void onTrigger(final ProcessContext context, final ProcessSession session, Weaver weaver, FlowFile flowFile) throws ProcessException {
+    final ProcessorLog log = this.getLogger();
 
-    ProcessorLog log  = this.getLogger();
-    FlowFile flowFile = session.get();
-    if (flowFile == null) {
-      return;
-    }
+    Entity datasetViews = getDatasetHandle(weaver, datasetId(context, flowFile)).getViews(weaver);
     
     String id = idFromOptions(context, flowFile, true);
 
@@ -92,8 +95,8 @@ public class CreateView extends FlowFileProcessor {
     view.linkEntity("objects", weaver.collection().toShallowEntity());
 
     // Pass ID of this view as attribute in flowfile
-    if(context.getProperty(ATTRIBUTE_NAME_FOR_ID).isSet()) {
-      String attributeNameForId = context.getProperty(ATTRIBUTE_NAME_FOR_ID).getValue();
+    if(config(context).isSet(ATTRIBUTE_NAME_FOR_ID)) {
+      String attributeNameForId = config(context).get(ATTRIBUTE_NAME_FOR_ID);
       flowFile = session.putAttribute(flowFile, attributeNameForId, id);
     }
     
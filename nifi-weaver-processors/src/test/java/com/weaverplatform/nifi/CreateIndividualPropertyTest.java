@@ -2,6 +2,7 @@ package com.weaverplatform.nifi;
 
 import com.google.common.io.Resources;
 import com.weaverplatform.nifi.individual.CreateIndividualProperty;
+import com.weaverplatform.nifi.individual.PropertyProcessor;
 import com.weaverplatform.nifi.util.WeaverProperties;
 import com.weaverplatform.sdk.Entity;
 import com.weaverplatform.sdk.EntityType;
@@ -69,6 +70,7 @@ public class CreateIndividualPropertyTest {
     weaver = new Weaver();
     weaver.connect(new WeaverSocket(new URI(WEAVER_URL)));
     weaver.wipe();
+    PropertyProcessor.forgetAll();
 
     // Create dataset
     dataset = new Dataset(weaver, WEAVER_DATASET).get(WEAVER_DATASET);
@@ -130,4 +132,25 @@ public class CreateIndividualPropertyTest {
     assertEquals("816ee370-4274-e211-a3a8-b8ac6f902f00",  reloaded.getRelations().get("subject").getId());
     assertEquals("ib:Afsluitboom",                        reloaded.getRelations().get("object").getId());
   }
+
+  @Test
+  public void testSelfReference() {
+    ProcessSession session = testRunner.getProcessSessionFactory().createSession();
+    FlowFile flowFile = session.create();
+    flowFile = session.putAttribute(flowFile, "id", "self");
+
+    testRunner.setProperty(CreateIndividualProperty.INDIVIDUAL_STATIC, "selfProperty");
+    testRunner.setProperty(CreateIndividualProperty.SUBJECT_ATTRIBUTE, "id");
+    testRunner.setProperty(CreateIndividualProperty.PREDICATE_STATIC, "rdfs:seeAlso");
+    testRunner.setProperty(CreateIndividualProperty.OBJECT_ATTRIBUTE, "id");
+    testRunner.setProperty(CreateIndividualProperty.IS_ADDIFYING, "true");
+    testRunner.enqueue(flowFile);
+    testRunner.run();
+
+    // The missing individual is created once, as both subject and object
+    testRunner.assertAllFlowFilesTransferred(CreateIndividualProperty.ORIGINAL, 1);
+    Entity reloaded = weaver.get("selfProperty", new ReadPayload.Opts(-1));
+    assertEquals("self", reloaded.getRelations().get("subject").getId());
+    assertEquals("self", reloaded.getRelations().get("object").getId());
+  }
 }
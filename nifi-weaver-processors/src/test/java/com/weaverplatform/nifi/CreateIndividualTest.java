@@ -17,7 +17,12 @@
 package com.weaverplatform.nifi;
 
 import com.google.common.io.Resources;
+import com.weaverplatform.nifi.individual.BucketDataset;
 import com.weaverplatform.nifi.individual.CreateIndividual;
+import com.weaverplatform.nifi.individual.PropertyProcessor;
+import com.weaverplatform.nifi.service.StandardWeaverConnectionService;
+import com.weaverplatform.nifi.service.WeaverConnectionService;
+import com.weaverplatform.nifi.util.DatasetObjects;
 import com.weaverplatform.nifi.util.WeaverProperties;
 import com.weaverplatform.sdk.Entity;
 import com.weaverplatform.sdk.Weaver;
@@ -27,6 +32,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.reporting.InitializationException;
 import org.apache.nifi.util.NiFiProperties;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
@@ -41,10 +47,14 @@ import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 
 public class CreateIndividualTest {
@@ -82,6 +92,7 @@ public class CreateIndividualTest {
     weaver = new Weaver();
     weaver.connect(new WeaverSocket(new URI(WEAVER_URL)));
     weaver.wipe();
+    PropertyProcessor.forgetAll();
 
     System.out.println(new File(getClass().getClassLoader().getResource("nifi.properties").getFile()).toString());
     Properties props = System.getProperties();
@@ -119,6 +130,233 @@ public class CreateIndividualTest {
 
   }
 
+  @Test
+  public void testIndividualCreationThroughConnectionService() throws InitializationException {
+
+    String id = UUID.randomUUID().toString();
+
+    WeaverConnectionService service = new StandardWeaverConnectionService();
+    Map<String, String> serviceProperties = new HashMap<>();
+    serviceProperties.put(StandardWeaverConnectionService.WEAVER_URL.getName(), WEAVER_URL);
+    serviceProperties.put(StandardWeaverConnectionService.POOL_SIZE.getName(), "2");
+    testRunner.addControllerService("weaver", service, serviceProperties);
+    testRunner.enableControllerService(service);
+    assertTrue(service.isReady());
+
+    ProcessSession session = testRunner.getProcessSessionFactory().createSession();
+    FlowFile flowFile = session.create();
+    flowFile = session.importFrom(new ByteArrayInputStream("Test".getBytes()), flowFile);
+    flowFile = session.putAttribute(flowFile, "id", id);
+    flowFile = session.putAttribute(flowFile, "name", "Name is set");
+
+    testRunner.setProperty(CreateIndividual.WEAVER_SERVICE, "weaver");
+    testRunner.setProperty(CreateIndividual.INDIVIDUAL_ATTRIBUTE, "id");
+    testRunner.setProperty(CreateIndividual.NAME_ATTRIBUTE, "name");
+    testRunner.setProperty(CreateIndividual.SOURCE_STATIC, "testSource");
+
+    testRunner.enqueue(flowFile);
+    testRunner.run();
+
+    Entity reloaded = weaver.get(id, new ReadPayload.Opts(-1));
+    assertEquals("Name is set",  reloaded.getAttributes().get("name"));
+  }
+
+  @Test
+  public void testIndividualCreationInBatch() {
+
+    testRunner.setProperty(CreateIndividual.INDIVIDUAL_ATTRIBUTE, "id");
+    testRunner.setProperty(CreateIndividual.NAME_ATTRIBUTE, "name");
+    testRunner.setProperty(CreateIndividual.SOURCE_STATIC, "testSource");
+    testRunner.setProperty(CreateIndividual.BATCH_SIZE, "10");
+
+    String[] ids = new String[5];
+    ProcessSession session = testRunner.getProcessSessionFactory().createSession();
+    for(int i = 0; i < ids.length; i++) {
+      ids[i] = UUID.randomUUID().toString();
+      FlowFile flowFile = session.create();
+      flowFile = session.importFrom(new ByteArrayInputStream("Test".getBytes()), flowFile);
+      flowFile = session.putAttribute(flowFile, "id", ids[i]);
+      flowFile = session.putAttribute(flowFile, "name", "Name " + i);
+      testRunner.enqueue(flowFile);
+    }
+
+    // One run takes the whole batch
+    testRunner.run(1);
+    testRunner.assertAllFlowFilesTransferred(CreateIndividual.ORIGINAL, ids.length);
+
+    for(int i = 0; i < ids.length; i++) {
+      Entity reloaded = weaver.get(ids[i], new ReadPayload.Opts(-1));
+      assertEquals("Name " + i,  reloaded.getAttributes().get("name"));
+    }
+  }
+
+  @Test
+  public void testBurstOfUpdatesIsCoalesced() {
+
+    testRunner.setProperty(CreateIndividual.INDIVIDUAL_ATTRIBUTE, "id");
+    testRunner.setProperty(CreateIndividual.NAME_ATTRIBUTE, "name");
+    testRunner.setProperty(CreateIndividual.SOURCE_STATIC, "testSource");
+    testRunner.setProperty(CreateIndividual.BATCH_SIZE, "10");
+
+    String id = UUID.randomUUID().toString();
+    ProcessSession session = testRunner.getProcessSessionFactory().createSession();
+    FlowFile created = session.create();
+    created = session.putAttribute(created, "id", id);
+    created = session.putAttribute(created, "name", "Name 0");
+    testRunner.enqueue(created);
+    testRunner.run(1);
+
+    // Five renames in one batch, only the last one is written
+    for(int i = 1; i <= 5; i++) {
+      FlowFile flowFile = session.create();
+      flowFile = session.putAttribute(flowFile, "id", id);
+      flowFile = session.putAttribute(flowFile, "name", "Name " + i);
+      testRunner.enqueue(flowFile);
+    }
+    testRunner.run(1);
+    testRunner.assertAllFlowFilesTransferred(CreateIndividual.ORIGINAL, 6);
+
+    // The source did not change, so only the name was written
+    assertEquals(Long.valueOf(1), testRunner.getCounterValue("Attributes unchanged"));
+
+    Entity reloaded = weaver.get(id, new ReadPayload.Opts(-1));
+    assertEquals("Name 5", reloaded.getAttributes().get("name"));
+    assertEquals("testSource", reloaded.getAttributes().get("source"));
+  }
+
+  @Test
+  public void testDeferredDatasetLinking() {
+
+    testRunner.setProperty(CreateIndividual.INDIVIDUAL_ATTRIBUTE, "id");
+    testRunner.setProperty(CreateIndividual.BATCH_SIZE, "10");
+    testRunner.setProperty(CreateIndividual.DEFERRED_LINKING, "true");
+
+    String[] ids = new String[5];
+    ProcessSession session = testRunner.getProcessSessionFactory().createSession();
+    for(int i = 0; i < ids.length; i++) {
+      ids[i] = UUID.randomUUID().toString();
+      FlowFile flowFile = session.create();
+      flowFile = session.putAttribute(flowFile, "id", ids[i]);
+      testRunner.enqueue(flowFile);
+    }
+
+    // Stopping the processor flushes the links
+    testRunner.run(1);
+    testRunner.assertAllFlowFilesTransferred(CreateIndividual.ORIGINAL, ids.length);
+
+    Entity dataset = weaver.get(WEAVER_DATASET, new ReadPayload.Opts(1));
+    Entity objects = weaver.get(dataset.getRelations().get("objects").getId(), new ReadPayload.Opts(1));
+    for(String id : ids) {
+      assertTrue(objects.getRelations().containsKey(id));
+    }
+  }
+
+  @Test
+  public void testConcurrentTasks() {
+
+    testRunner.setProperty(CreateIndividual.INDIVIDUAL_ATTRIBUTE, "id");
+    testRunner.setProperty(CreateIndividual.NAME_ATTRIBUTE, "name");
+    testRunner.setProperty(CreateIndividual.BATCH_SIZE, "10");
+    testRunner.setThreadCount(8);
+
+    // Every individual comes by four times, so tasks race to create it
+    String[] ids = new String[100];
+    for(int i = 0; i < ids.length; i++) {
+      ids[i] = UUID.randomUUID().toString();
+    }
+    ProcessSession session = testRunner.getProcessSessionFactory().createSession();
+    for(int i = 0; i < 4 * ids.length; i++) {
+      FlowFile flowFile = session.create();
+      flowFile = session.putAttribute(flowFile, "id", ids[i % ids.length]);
+      flowFile = session.putAttribute(flowFile, "name", "Name of " + ids[i % ids.length]);
+      testRunner.enqueue(flowFile);
+    }
+
+    testRunner.run(4 * ids.length / 10);
+    testRunner.assertAllFlowFilesTransferred(CreateIndividual.ORIGINAL, 4 * ids.length);
+    testRunner.assertQueueEmpty();
+
+    Entity dataset = weaver.get(WEAVER_DATASET, new ReadPayload.Opts(1));
+    Entity objects = weaver.get(dataset.getRelations().get("objects").getId(), new ReadPayload.Opts(1));
+    for(String id : ids) {
+      Entity individual = weaver.get(id, new ReadPayload.Opts(1));
+      assertEquals("Name of " + id, individual.getAttributes().get("name"));
+      assertTrue(individual.getRelations().containsKey("properties"));
+      assertTrue(objects.getRelations().containsKey(id));
+    }
+  }
+
+  @Test
+  public void testDatasetFromAttribute() {
+
+    testRunner.setProperty(CreateIndividual.INDIVIDUAL_ATTRIBUTE, "id");
+    testRunner.setProperty(CreateIndividual.DATASET_ATTRIBUTE, "dataset");
+    testRunner.setProperty(CreateIndividual.BATCH_SIZE, "10");
+
+    String otherDataset = UUID.randomUUID().toString();
+    String inDefault = UUID.randomUUID().toString();
+    String inOther = UUID.randomUUID().toString();
+
+    ProcessSession session = testRunner.getProcessSessionFactory().createSession();
+    FlowFile flowFile = session.create();
+    flowFile = session.putAttribute(flowFile, "id", inDefault);
+    testRunner.enqueue(flowFile);
+    flowFile = session.create();
+    flowFile = session.putAttribute(flowFile, "id", inOther);
+    flowFile = session.putAttribute(flowFile, "dataset", otherDataset);
+    testRunner.enqueue(flowFile);
+
+    testRunner.run();
+    testRunner.assertAllFlowFilesTransferred(CreateIndividual.ORIGINAL, 2);
+
+    Entity dataset = weaver.get(WEAVER_DATASET, new ReadPayload.Opts(1));
+    Entity objects = weaver.get(dataset.getRelations().get("objects").getId(), new ReadPayload.Opts(1));
+    assertTrue(objects.getRelations().containsKey(inDefault));
+    assertFalse(objects.getRelations().containsKey(inOther));
+
+    Entity other = weaver.get(otherDataset, new ReadPayload.Opts(1));
+    Entity otherObjects = weaver.get(other.getRelations().get("objects").getId(), new ReadPayload.Opts(1));
+    assertTrue(otherObjects.getRelations().containsKey(inOther));
+    assertFalse(otherObjects.getRelations().containsKey(inDefault));
+  }
+
+  @Test
+  public void testBucketedDataset() {
+
+    testRunner.setProperty(CreateIndividual.INDIVIDUAL_ATTRIBUTE, "id");
+
+    String[] ids = new String[10];
+    ProcessSession session = testRunner.getProcessSessionFactory().createSession();
+    for(int i = 0; i < ids.length; i++) {
+      ids[i] = UUID.randomUUID().toString();
+      FlowFile flowFile = session.create();
+      flowFile = session.putAttribute(flowFile, "id", ids[i]);
+      testRunner.enqueue(flowFile);
+
+      // Half before and half after bucketing
+      if(i == ids.length / 2 - 1) {
+        testRunner.run(ids.length / 2);
+
+        TestRunner bucketRunner = TestRunners.newTestRunner(BucketDataset.class);
+        bucketRunner.setProperty(BucketDataset.FAN_OUT, "4");
+        bucketRunner.enqueue(new byte[0]);
+        bucketRunner.run();
+        bucketRunner.assertAllFlowFilesTransferred(BucketDataset.ORIGINAL, 1);
+        bucketRunner.getFlowFilesForRelationship(BucketDataset.ORIGINAL).get(0).assertAttributeEquals(BucketDataset.COUNT_ATTRIBUTE, String.valueOf(ids.length / 2));
+      }
+    }
+    testRunner.run(ids.length - ids.length / 2);
+    testRunner.assertAllFlowFilesTransferred(CreateIndividual.ORIGINAL, ids.length);
+
+    Entity dataset = weaver.get(WEAVER_DATASET, new ReadPayload.Opts(1));
+    Entity objects = weaver.get(dataset.getRelations().get("objects").getId(), new ReadPayload.Opts(0));
+    assertEquals("4", objects.getAttributes().get(DatasetObjects.BUCKETS));
+    for(String id : ids) {
+      String bucketId = objects.getRelations().get(DatasetObjects.bucketKey(DatasetObjects.bucketOf(id, 4))).getId();
+      assertTrue(weaver.get(bucketId, new ReadPayload.Opts(0)).getRelations().containsKey(id));
+    }
+  }
+
   @Test
   public void testIndividualCreationWithPostponedName() {
 
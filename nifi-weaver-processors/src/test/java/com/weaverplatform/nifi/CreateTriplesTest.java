@@ -0,0 +1,167 @@
+package com.weaverplatform.nifi;
+
+import com.google.common.io.Resources;
+import com.weaverplatform.nifi.individual.CreateTriples;
+import com.weaverplatform.nifi.individual.PropertyLookup;
+import com.weaverplatform.nifi.individual.PropertyProcessor;
+import com.weaverplatform.nifi.util.WeaverProperties;
+import com.weaverplatform.sdk.Entity;
+import com.weaverplatform.sdk.Weaver;
+import com.weaverplatform.sdk.json.request.ReadPayload;
+import com.weaverplatform.sdk.model.Dataset;
+import com.weaverplatform.sdk.websocket.WeaverSocket;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.NiFiProperties;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class CreateTriplesTest {
+
+  private TestRunner testRunner;
+
+  private Weaver weaver;
+  private static String WEAVER_URL;
+  private static String WEAVER_DATASET;
+
+  Entity dataset;
+
+  @BeforeClass
+  public static void beforeClass() throws IOException {
+
+    // Define property file for NiFi
+    Properties props = System.getProperties();
+    props.setProperty("nifi.properties.file.path", Resources.getResource("nifi.properties").getPath());
+
+    // Read test properties
+    Properties testProperties = new Properties();
+    testProperties.load(Resources.getResource("test.properties").openStream());
+    WEAVER_URL     = testProperties.get("weaver.url").toString();
+    WEAVER_DATASET = testProperties.get("weaver.global.dataset").toString();
+
+    // Set Nifi Weaver properties
+    NiFiProperties.getInstance().put(WeaverProperties.URL, WEAVER_URL);
+    NiFiProperties.getInstance().put(WeaverProperties.DATASET, WEAVER_DATASET);
+  }
+
+  @Before
+  public void init() throws URISyntaxException {
+
+    // Wipe weaver database first
+    weaver = new Weaver();
+    weaver.connect(new WeaverSocket(new URI(WEAVER_URL)));
+    weaver.wipe();
+    PropertyProcessor.forgetAll();
+
+    // Create dataset
+    dataset = new Dataset(weaver, WEAVER_DATASET).get(WEAVER_DATASET);
+
+    testRunner = TestRunners.newTestRunner(CreateTriples.class);
+  }
+
+  @Test
+  public void testCsv() {
+
+    String content =
+        "subject,predicate,object,type\n" +
+        "a,rdf:type,b,individual\n" +
+        "a,rdf:type,b,individual\n" +
+        "a,rdf:label,\"Snelle doorsteek, A10\",value\n" +
+        "c,rdf:type,b\n" +
+        "not a triple\n";
+
+    testRunner.setProperty(CreateTriples.WEAVER, WEAVER_URL);
+    testRunner.setProperty(CreateTriples.SKIP_HEADER, "true");
+    testRunner.setProperty(CreateTriples.TRIPLE_BATCH_SIZE, "2");
+    testRunner.enqueue(content.getBytes(StandardCharsets.UTF_8));
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(CreateTriples.ORIGINAL, 1);
+    MockFlowFile flowFile = testRunner.getFlowFilesForRelationship(CreateTriples.ORIGINAL).get(0);
+    flowFile.assertAttributeEquals(CreateTriples.COUNT_ATTRIBUTE, "4");
+    flowFile.assertAttributeEquals(CreateTriples.SKIPPED_ATTRIBUTE, "1");
+
+    // The duplicate triple is only created once
+    Entity a = weaver.get("a", new ReadPayload.Opts(1));
+    assertEquals(1, PropertyLookup.withPredicate(weaver, a, "rdf:type").size());
+    assertEquals("Snelle doorsteek, A10", PropertyLookup.objectOf(PropertyLookup.withPredicate(weaver, a, "rdf:label").get(0)));
+
+    Entity c = weaver.get("c", new ReadPayload.Opts(1));
+    assertEquals("b", PropertyLookup.objectOf(PropertyLookup.withPredicate(weaver, c, "rdf:type").get(0)));
+  }
+
+  @Test
+  public void testJsonLines() {
+
+    String content =
+        "{\"subject\": \"a\", \"predicate\": \"rdf:label\", \"object\": \"Afsluitboom\"}\n" +
+        "{\"subject\": \"a\", \"predicate\": \"rdf:type\", \"object\": \"b\", \"type\": \"individual\"}\n";
+
+    testRunner.setProperty(CreateTriples.WEAVER, WEAVER_URL);
+    testRunner.setProperty(CreateTriples.FORMAT, CreateTriples.JSON_LINES);
+    testRunner.setProperty(CreateTriples.DEFAULT_TYPE, CreateTriples.VALUE);
+    testRunner.enqueue(content.getBytes(StandardCharsets.UTF_8));
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(CreateTriples.ORIGINAL, 1);
+    testRunner.getFlowFilesForRelationship(CreateTriples.ORIGINAL).get(0).assertAttributeEquals(CreateTriples.COUNT_ATTRIBUTE, "2");
+
+    Entity a = weaver.get("a", new ReadPayload.Opts(1));
+    assertEquals("Afsluitboom", PropertyLookup.objectOf(PropertyLookup.withPredicate(weaver, a, "rdf:label").get(0)));
+    assertEquals("b", PropertyLookup.objectOf(PropertyLookup.withPredicate(weaver, a, "rdf:type").get(0)));
+  }
+
+  @Test
+  public void testConcurrentOverlap() {
+
+    // Every FlowFile has the same missing subject and object
+    testRunner.setThreadCount(4);
+    for(int i = 0; i < 8; i++) {
+      testRunner.enqueue("x,rdf:type,y\n".getBytes(StandardCharsets.UTF_8));
+    }
+    testRunner.run(8);
+
+    testRunner.assertAllFlowFilesTransferred(CreateTriples.ORIGINAL, 8);
+    Entity x = weaver.get("x", new ReadPayload.Opts(1));
+    assertEquals(1, PropertyLookup.withPredicate(weaver, x, "rdf:type").size());
+  }
+
+  @Test
+  public void testOneReadPerLookup() throws URISyntaxException {
+
+    String content =
+        "a,rdf:type,b,individual\n" +
+        "a,rdf:type,c,individual\n" +
+        "a,rdf:label,Afsluitboom,value\n";
+
+    testRunner.enqueue(content.getBytes(StandardCharsets.UTF_8));
+    testRunner.run();
+
+    AtomicInteger reads = new AtomicInteger();
+    Weaver counting = new Weaver() {
+      @Override
+      public Entity get(String id, ReadPayload.Opts opts) {
+        reads.incrementAndGet();
+        return super.get(id, opts);
+      }
+    };
+    counting.connect(new WeaverSocket(new URI(WEAVER_URL)));
+
+    Entity a = weaver.get("a", new ReadPayload.Opts(1));
+    assertEquals(2, PropertyLookup.withPredicate(counting, a, "rdf:type").size());
+
+    // Only the properties collection, its three members come with it
+    assertEquals(1, reads.get());
+  }
+}
@@ -2,10 +2,14 @@ package com.weaverplatform.nifi;
 
 import com.google.common.io.Resources;
 import com.weaverplatform.nifi.individual.CreateValueProperty;
+import com.weaverplatform.nifi.individual.PropertyLookup;
+import com.weaverplatform.nifi.individual.PropertyProcessor;
+import com.weaverplatform.nifi.util.HashIdGenerator;
 import com.weaverplatform.nifi.util.WeaverProperties;
 import com.weaverplatform.sdk.Entity;
 import com.weaverplatform.sdk.EntityType;
 import com.weaverplatform.sdk.Weaver;
+import com.weaverplatform.sdk.json.request.ReadPayload;
 import com.weaverplatform.sdk.model.Dataset;
 import com.weaverplatform.sdk.websocket.WeaverSocket;
 import org.apache.commons.io.FileUtils;
@@ -29,6 +33,8 @@ import java.util.HashMap;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 
+import static org.junit.Assert.assertEquals;
+
 public class CreateValuePropertyTest {
 
   private TestRunner testRunner;
@@ -65,6 +71,7 @@ public class CreateValuePropertyTest {
     weaver = new Weaver();
     weaver.connect(new WeaverSocket(new URI(WEAVER_URL)));
     weaver.wipe();
+    PropertyProcessor.forgetAll();
 
     // Create dataset
     dataset = new Dataset(weaver, WEAVER_DATASET).get(WEAVER_DATASET);
@@ -118,4 +125,67 @@ public class CreateValuePropertyTest {
       System.out.println(e.getStackTrace());
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testContentHashIds() {
+
+    ConcurrentHashMap<String, String> subjectAttributes = new ConcurrentHashMap<>();
+    subjectAttributes.put("name", "subjectThing");
+    Entity subjectEntity = weaver.add(subjectAttributes, EntityType.INDIVIDUAL, "816ee370-4274-e211-a3a8-b8ac6f902f00");
+    subjectEntity.linkEntity("properties", weaver.collection().toShallowEntity());
+    datasetObjects.linkEntity(subjectEntity.getId(), subjectEntity.toShallowEntity());
+
+    testRunner.setProperty(CreateValueProperty.WEAVER, WEAVER_URL);
+    testRunner.setProperty(CreateValueProperty.SUBJECT_STATIC, "816ee370-4274-e211-a3a8-b8ac6f902f00");
+    testRunner.setProperty(CreateValueProperty.PREDICATE_STATIC, "rdf:label");
+    testRunner.setProperty(CreateValueProperty.OBJECT_STATIC, "Snelle doorsteek A10");
+    testRunner.setProperty(CreateValueProperty.ID_GENERATOR, HashIdGenerator.NAME);
+    testRunner.setProperty(CreateValueProperty.ATTRIBUTE_NAME_FOR_ID, "property");
+
+    // The same property twice, as after a replay
+    testRunner.enqueue(new byte[0]);
+    testRunner.run();
+    PropertyProcessor.forgetAll();
+    testRunner.enqueue(new byte[0]);
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(CreateValueProperty.ORIGINAL, 2);
+    String first = testRunner.getFlowFilesForRelationship(CreateValueProperty.ORIGINAL).get(0).getAttribute("property");
+    String second = testRunner.getFlowFilesForRelationship(CreateValueProperty.ORIGINAL).get(1).getAttribute("property");
+    assertEquals(first, second);
+
+    Entity reloaded = weaver.get("816ee370-4274-e211-a3a8-b8ac6f902f00", new ReadPayload.Opts(1));
+    assertEquals(1, PropertyLookup.withPredicate(weaver, reloaded, "rdf:label").size());
+  }
+
+  @Test
+  public void testBatch() {
+
+    ConcurrentHashMap<String, String> subjectAttributes = new ConcurrentHashMap<>();
+    subjectAttributes.put("name", "subjectThing");
+    Entity subjectEntity = weaver.add(subjectAttributes, EntityType.INDIVIDUAL, "816ee370-4274-e211-a3a8-b8ac6f902f00");
+    subjectEntity.linkEntity("properties", weaver.collection().toShallowEntity());
+    datasetObjects.linkEntity(subjectEntity.getId(), subjectEntity.toShallowEntity());
+
+    testRunner.setProperty(CreateValueProperty.WEAVER, WEAVER_URL);
+    testRunner.setProperty(CreateValueProperty.SUBJECT_STATIC, "816ee370-4274-e211-a3a8-b8ac6f902f00");
+    testRunner.setProperty(CreateValueProperty.PREDICATE_STATIC, "rdf:label");
+    testRunner.setProperty(CreateValueProperty.OBJECT_ATTRIBUTE, "label");
+    testRunner.setProperty(CreateValueProperty.BATCH_SIZE, "5");
+
+    ProcessSession session = testRunner.getProcessSessionFactory().createSession();
+    for(int i = 0; i < 5; i++) {
+      FlowFile flowFile = session.create();
+      flowFile = session.putAttribute(flowFile, "label", "Label " + i);
+      testRunner.enqueue(flowFile);
+    }
+
+    // One run takes them all
+    testRunner.run(1);
+    testRunner.assertAllFlowFilesTransferred(CreateValueProperty.ORIGINAL, 5);
+    testRunner.assertQueueEmpty();
+
+    Entity reloaded = weaver.get("816ee370-4274-e211-a3a8-b8ac6f902f00", new ReadPayload.Opts(1));
+    assertEquals(5, PropertyLookup.withPredicate(weaver, reloaded, "rdf:label").size());
+  }
+}
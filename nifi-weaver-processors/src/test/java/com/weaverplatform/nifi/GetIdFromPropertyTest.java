@@ -0,0 +1,167 @@
+package com.weaverplatform.nifi;
+
+import com.google.common.io.Resources;
+import com.google.gson.Gson;
+import com.weaverplatform.nifi.individual.CreateTriples;
+import com.weaverplatform.nifi.individual.GetIdFromProperty;
+import com.weaverplatform.nifi.individual.PropertyProcessor;
+import com.weaverplatform.nifi.util.WeaverProperties;
+import com.weaverplatform.sdk.Weaver;
+import com.weaverplatform.sdk.model.Dataset;
+import com.weaverplatform.sdk.websocket.WeaverSocket;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.NiFiProperties;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class GetIdFromPropertyTest {
+
+  private TestRunner testRunner;
+
+  private Weaver weaver;
+  private static String WEAVER_URL;
+  private static String WEAVER_DATASET;
+
+  @BeforeClass
+  public static void beforeClass() throws IOException {
+
+    // Define property file for NiFi
+    Properties props = System.getProperties();
+    props.setProperty("nifi.properties.file.path", Resources.getResource("nifi.properties").getPath());
+
+    // Read test properties
+    Properties testProperties = new Properties();
+    testProperties.load(Resources.getResource("test.properties").openStream());
+    WEAVER_URL     = testProperties.get("weaver.url").toString();
+    WEAVER_DATASET = testProperties.get("weaver.global.dataset").toString();
+
+    // Set Nifi Weaver properties
+    NiFiProperties.getInstance().put(WeaverProperties.URL, WEAVER_URL);
+    NiFiProperties.getInstance().put(WeaverProperties.DATASET, WEAVER_DATASET);
+  }
+
+  @Before
+  public void init() throws URISyntaxException {
+
+    // Wipe weaver database first
+    weaver = new Weaver();
+    weaver.connect(new WeaverSocket(new URI(WEAVER_URL)));
+    weaver.wipe();
+    PropertyProcessor.forgetAll();
+
+    // Create dataset
+    new Dataset(weaver, WEAVER_DATASET).get(WEAVER_DATASET);
+
+    // a and c are of type b
+    TestRunner triples = TestRunners.newTestRunner(CreateTriples.class);
+    triples.enqueue("a,rdf:type,b\nc,rdf:type,b\n".getBytes(StandardCharsets.UTF_8));
+    triples.run();
+
+    testRunner = TestRunners.newTestRunner(GetIdFromProperty.class);
+    testRunner.setProperty(GetIdFromProperty.PREDICATE_STATIC, "rdf:type");
+    testRunner.setProperty(GetIdFromProperty.OBJECT_ATTRIBUTE, "object");
+    testRunner.setProperty(GetIdFromProperty.ATTRIBUTE_NAME_FOR_ID, "subject");
+  }
+
+  @Test
+  public void testBatchSharesQueries() {
+
+    testRunner.setProperty(GetIdFromProperty.BATCH_SIZE, "3");
+
+    ProcessSession session = testRunner.getProcessSessionFactory().createSession();
+    for(String object : new String[]{"b", "b", "x"}) {
+      FlowFile flowFile = session.create();
+      flowFile = session.putAttribute(flowFile, "object", object);
+      testRunner.enqueue(flowFile);
+    }
+    testRunner.run(1);
+
+    // Both FlowFiles for b get a and c, the one for x nothing
+    testRunner.assertAllFlowFilesTransferred(GetIdFromProperty.ORIGINAL, 4);
+    Set<String> subjects = new HashSet<>();
+    for(MockFlowFile flowFile : testRunner.getFlowFilesForRelationship(GetIdFromProperty.ORIGINAL)) {
+      assertEquals("b", flowFile.getAttribute("object"));
+      subjects.add(flowFile.getAttribute("subject"));
+    }
+    assertEquals(2, subjects.size());
+
+    assertEquals(2, testRunner.getCounterValue("Lookup queries").longValue());
+    assertEquals(1, testRunner.getCounterValue("Lookups shared").longValue());
+  }
+
+  @Test
+  public void testBadFlowFileGoesToFailure() {
+
+    testRunner.setProperty(GetIdFromProperty.BATCH_SIZE, "3");
+
+    // The FlowFile in the middle has no object, the others are looked up
+    ProcessSession session = testRunner.getProcessSessionFactory().createSession();
+    for(String object : new String[]{"b", null, "b"}) {
+      FlowFile flowFile = session.create();
+      if(object != null) {
+        flowFile = session.putAttribute(flowFile, "object", object);
+      }
+      testRunner.enqueue(flowFile);
+    }
+    testRunner.run(1);
+
+    testRunner.assertTransferCount(GetIdFromProperty.ORIGINAL, 4);
+    testRunner.assertTransferCount(GetIdFromProperty.FAILURE, 1);
+    MockFlowFile failed = testRunner.getFlowFilesForRelationship(GetIdFromProperty.FAILURE).get(0);
+    failed.assertAttributeNotExists("object");
+    testRunner.assertQueueEmpty();
+  }
+
+  @Test
+  public void testCachedLookup() {
+
+    testRunner.setProperty(GetIdFromProperty.CACHE_LOOKUPS, "true");
+
+    ProcessSession session = testRunner.getProcessSessionFactory().createSession();
+    for(int i = 0; i < 2; i++) {
+      FlowFile flowFile = session.create();
+      flowFile = session.putAttribute(flowFile, "object", "b");
+      testRunner.enqueue(flowFile);
+    }
+    testRunner.run(2);
+
+    testRunner.assertAllFlowFilesTransferred(GetIdFromProperty.ORIGINAL, 4);
+    assertEquals(1, testRunner.getCounterValue("Lookup cache misses").longValue());
+    assertEquals(1, testRunner.getCounterValue("Lookup cache hits").longValue());
+  }
+
+  @Test
+  public void testAllIdsInOneFlowFile() {
+
+    testRunner.setProperty(GetIdFromProperty.OUTPUT_MODE, GetIdFromProperty.JSON_ARRAY);
+
+    ProcessSession session = testRunner.getProcessSessionFactory().createSession();
+    FlowFile flowFile = session.create();
+    flowFile = session.putAttribute(flowFile, "object", "b");
+    testRunner.enqueue(flowFile);
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(GetIdFromProperty.ORIGINAL, 1);
+    MockFlowFile found = testRunner.getFlowFilesForRelationship(GetIdFromProperty.ORIGINAL).get(0);
+    found.assertAttributeEquals(GetIdFromProperty.COUNT_ATTRIBUTE, "2");
+
+    String[] ids = new Gson().fromJson(new String(testRunner.getContentAsByteArray(found), StandardCharsets.UTF_8), String[].class);
+    assertEquals(new HashSet<>(Arrays.asList("a", "c")), new HashSet<>(Arrays.asList(ids)));
+  }
+}
@@ -1,8 +1,12 @@
 package com.weaverplatform.nifi;
 
 import com.google.common.io.Resources;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.weaverplatform.nifi.individual.CreateTriples;
 import com.weaverplatform.nifi.individual.NativeQuery;
 import com.weaverplatform.nifi.individual.PropertyExists;
+import com.weaverplatform.nifi.individual.PropertyProcessor;
 import com.weaverplatform.nifi.util.WeaverProperties;
 import com.weaverplatform.sdk.Entity;
 import com.weaverplatform.sdk.EntityType;
@@ -32,6 +36,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class NativeQueryTest {
 
@@ -95,4 +100,107 @@ public class NativeQueryTest {
     assertEquals(1, original.size());
     assertEquals(1, results.size());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testPagedQuery() throws URISyntaxException {
+    createTriples();
+
+    testRunner.setProperty(NativeQuery.SELECT, "s");
+    testRunner.setProperty(NativeQuery.QUERY, "SELECT ?s WHERE {?s rdf:type ?o} ORDER BY ?s");
+    testRunner.setProperty(NativeQuery.PAGE_SIZE, "2");
+
+    testRunner.enqueue("Flowfile Content".getBytes());
+    testRunner.run();
+
+    // Pages of 2, 2 and 1 rows
+    testRunner.assertTransferCount(NativeQuery.ORIGINAL, 1);
+    testRunner.assertTransferCount(NativeQuery.RESULT_ROW, 5);
+    assertEquals(3, testRunner.getCounterValue("Pages").longValue());
+  }
+
+  @Test
+  public void testMaxRows() throws URISyntaxException {
+    createTriples();
+
+    testRunner.setProperty(NativeQuery.SELECT, "s");
+    testRunner.setProperty(NativeQuery.QUERY, "SELECT ?s WHERE {?s rdf:type ?o} ORDER BY ?s");
+    testRunner.setProperty(NativeQuery.PAGE_SIZE, "2");
+    testRunner.setProperty(NativeQuery.MAX_ROWS, "3");
+
+    testRunner.enqueue("Flowfile Content".getBytes());
+    testRunner.run();
+
+    // The second page only asks for the one row left
+    testRunner.assertTransferCount(NativeQuery.RESULT_ROW, 3);
+    assertEquals(2, testRunner.getCounterValue("Pages").longValue());
+  }
+
+  @Test
+  public void testFailedQuery() {
+    testRunner.setProperty(NativeQuery.SELECT, "s");
+    testRunner.setProperty(NativeQuery.QUERY, "SELECT ?s WHERE {?s ?p ?o} LIMIT 5");
+    testRunner.setProperty(NativeQuery.PAGE_SIZE, "2");
+
+    testRunner.enqueue("Flowfile Content".getBytes());
+    testRunner.run();
+
+    // A query with its own LIMIT can't be paged
+    testRunner.assertAllFlowFilesTransferred(NativeQuery.FAILURE, 1);
+  }
+
+  @Test
+  public void testCsvOutput() throws URISyntaxException {
+    createTriples();
+
+    testRunner.setProperty(NativeQuery.SELECT, "s");
+    testRunner.setProperty(NativeQuery.QUERY, "SELECT ?s WHERE {?s rdf:type ?o} ORDER BY ?s");
+    testRunner.setProperty(NativeQuery.OUTPUT_FORMAT, NativeQuery.CSV);
+    testRunner.setProperty(NativeQuery.ROWS_PER_FLOWFILE, "2");
+
+    testRunner.enqueue("Flowfile Content".getBytes());
+    testRunner.run();
+
+    // 5 rows in FlowFiles of 2, 2 and 1
+    List<MockFlowFile> results = testRunner.getFlowFilesForRelationship(NativeQuery.RESULT_ROW);
+    assertEquals(3, results.size());
+    results.get(0).assertAttributeEquals(NativeQuery.COUNT_ATTRIBUTE, "2");
+    results.get(2).assertAttributeEquals(NativeQuery.COUNT_ATTRIBUTE, "1");
+    assertEquals(3, new String(testRunner.getContentAsByteArray(results.get(0))).split("\r\n").length);
+  }
+
+  @Test
+  public void testJsonLinesOutput() throws URISyntaxException {
+    createTriples();
+
+    testRunner.setProperty(NativeQuery.SELECT, "s,o");
+    testRunner.setProperty(NativeQuery.QUERY, "SELECT ?s ?o WHERE {?s rdf:type ?o} ORDER BY ?s");
+    testRunner.setProperty(NativeQuery.OUTPUT_FORMAT, NativeQuery.JSON_LINES);
+    testRunner.setProperty(NativeQuery.PAGE_SIZE, "4");
+
+    testRunner.enqueue("Flowfile Content".getBytes());
+    testRunner.run();
+
+    // A FlowFile per page
+    List<MockFlowFile> results = testRunner.getFlowFilesForRelationship(NativeQuery.RESULT_ROW);
+    assertEquals(2, results.size());
+    String[] lines = new String(testRunner.getContentAsByteArray(results.get(0))).split("\n");
+    assertEquals(4, lines.length);
+    for(String line : lines) {
+      JsonObject row = new JsonParser().parse(line).getAsJsonObject();
+      assertTrue(row.has("s"));
+      assertTrue(row.has("o"));
+    }
+  }
+
+  private void createTriples() throws URISyntaxException {
+    weaver = new Weaver();
+    weaver.connect(new WeaverSocket(new URI(WEAVER_URL)));
+    weaver.wipe();
+    PropertyProcessor.forgetAll();
+    new Dataset(weaver, WEAVER_DATASET).get(WEAVER_DATASET);
+
+    TestRunner triples = TestRunners.newTestRunner(CreateTriples.class);
+    triples.enqueue("a1,rdf:type,b\na2,rdf:type,b\na3,rdf:type,b\na4,rdf:type,b\na5,rdf:type,b\n".getBytes());
+    triples.run();
+  }
+}
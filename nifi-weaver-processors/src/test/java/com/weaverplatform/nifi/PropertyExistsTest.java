@@ -2,6 +2,7 @@ package com.weaverplatform.nifi;
 
 import com.google.common.io.Resources;
 import com.weaverplatform.nifi.individual.PropertyExists;
+import com.weaverplatform.nifi.individual.PropertyProcessor;
 import com.weaverplatform.nifi.util.WeaverProperties;
 import com.weaverplatform.sdk.Entity;
 import com.weaverplatform.sdk.EntityType;
@@ -67,6 +68,7 @@ public class PropertyExistsTest {
     weaver = new Weaver();
     weaver.connect(new WeaverSocket(new URI(WEAVER_URL)));
     weaver.wipe();
+    PropertyProcessor.forgetAll();
 
     // Create dataset
     dataset = new Dataset(weaver, WEAVER_DATASET).get(WEAVER_DATASET);
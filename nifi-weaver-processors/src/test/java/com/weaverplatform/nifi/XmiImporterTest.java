@@ -18,6 +18,7 @@ package com.weaverplatform.nifi;
 
 import com.google.common.io.Resources;
 import com.weaverplatform.nifi.individual.XmiImporter;
+import com.weaverplatform.nifi.individual.PropertyProcessor;
 import com.weaverplatform.nifi.util.WeaverProperties;
 import com.weaverplatform.sdk.Weaver;
 import com.weaverplatform.sdk.websocket.WeaverSocket;
@@ -75,6 +76,7 @@ public class XmiImporterTest {
     weaver = new Weaver();
     weaver.connect(new WeaverSocket(new URI(WEAVER_URL)));
     weaver.wipe();
+    PropertyProcessor.forgetAll();
 
     System.out.println(new File(getClass().getClassLoader().getResource("nifi.properties").getFile()).toString());
     Properties props = System.getProperties();
@@ -0,0 +1,64 @@
+package com.weaverplatform.nifi.individual;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class NativeQueryFormatTest {
+
+  private static final List<String> SELECT_VARS = Arrays.asList("s", "o");
+
+  @Test
+  public void testRow() throws IOException {
+    StringWriter writer = new StringWriter();
+    NativeQuery.writeRow(writer, Arrays.asList("a", null, "b"));
+    assertEquals("a;null;b", writer.toString());
+  }
+
+  @Test
+  public void testCsvPlainValues() throws IOException {
+    StringWriter writer = new StringWriter();
+    NativeQuery.writeCsv(writer, SELECT_VARS, Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d")));
+    assertEquals("s,o\r\na,b\r\nc,d\r\n", writer.toString());
+  }
+
+  @Test
+  public void testCsvQuoting() throws IOException {
+    StringWriter writer = new StringWriter();
+    NativeQuery.writeCsv(writer, SELECT_VARS, Arrays.asList(
+        Arrays.asList("a", "x,y"),
+        Arrays.asList("b\"q", null),
+        Arrays.asList("c", "line\nbreak"),
+        Arrays.asList("d", "carriage\rreturn")));
+    assertEquals("s,o\r\n" +
+        "a,\"x,y\"\r\n" +
+        "\"b\"\"q\",\r\n" +
+        "c,\"line\nbreak\"\r\n" +
+        "d,\"carriage\rreturn\"\r\n", writer.toString());
+  }
+
+  @Test
+  public void testCsvWithoutRows() throws IOException {
+    StringWriter writer = new StringWriter();
+    NativeQuery.writeCsv(writer, SELECT_VARS, Collections.<List<String>>emptyList());
+    assertEquals("s,o\r\n", writer.toString());
+  }
+
+  @Test
+  public void testJsonLines() throws IOException {
+    StringWriter writer = new StringWriter();
+    NativeQuery.writeJsonLines(writer, SELECT_VARS, Arrays.asList(
+        Arrays.asList("a", "x,y"),
+        Arrays.asList("b\"q", null),
+        Arrays.asList("c", "line\nbreak")));
+    assertEquals("{\"s\":\"a\",\"o\":\"x,y\"}\n" +
+        "{\"s\":\"b\\\"q\",\"o\":null}\n" +
+        "{\"s\":\"c\",\"o\":\"line\\nbreak\"}\n", writer.toString());
+  }
+}
@@ -0,0 +1,8 @@
+package com.weaverplatform.nifi.util;
+
+/**
+ * Category of tests that time something and print the result. They are left
+ * out of the default build, run them with -Pbenchmark.
+ */
+public interface Benchmark {
+}
@@ -0,0 +1,100 @@
+package com.weaverplatform.nifi.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExistenceCacheTest {
+
+  @Test
+  public void testAnswers() {
+    ExistenceCache cache = new ExistenceCache(10, 100);
+
+    Map<String, String> attributes = new HashMap<>();
+    attributes.put("name", "Afsluitboom");
+    cache.present("a", attributes);
+
+    assertEquals(ExistenceCache.Answer.EXISTS, cache.lookup("a", false));
+    assertEquals("Afsluitboom", cache.attributes("a").get("name"));
+
+    // Only a single writer knows what it never saw does not exist
+    assertEquals(ExistenceCache.Answer.UNKNOWN, cache.lookup("b", false));
+    assertEquals(ExistenceCache.Answer.ABSENT, cache.lookup("b", true));
+
+    // Evicted entities are still in the Bloom filter, so no longer known absent
+    for(int i = 0; i < 20; i++) {
+      cache.present("c" + i, attributes);
+    }
+    assertEquals(ExistenceCache.Answer.UNKNOWN, cache.lookup("c0", true));
+
+    cache.clear();
+    assertEquals(ExistenceCache.Answer.ABSENT, cache.lookup("a", true));
+  }
+
+  @Test
+  public void testBloomFilterGrows() {
+    ScalableBloomFilter filter = new ScalableBloomFilter(1000, 0.01);
+
+    for(int i = 0; i < 100000; i++) {
+      filter.put("present" + i);
+    }
+    assertTrue(filter.size() > 1);
+
+    for(int i = 0; i < 100000; i++) {
+      assertTrue(filter.mightContain("present" + i));
+    }
+
+    int falsePositives = 0;
+    for(int i = 0; i < 100000; i++) {
+      if(filter.mightContain("absent" + i)) {
+        falsePositives++;
+      }
+    }
+    System.out.println(filter.size() + " filters, " + falsePositives + " false positives in 100000");
+    assertTrue(falsePositives < 1.5 * 0.01 * 100000);
+  }
+
+  @Test
+  public void testConcurrentPutsAndChecks() throws Exception {
+    ScalableBloomFilter filter = new ScalableBloomFilter(1000, 0.01);
+
+    // Every thread checks what it put right away, while the others grow the filter
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> tasks = new ArrayList<>();
+      for(int t = 0; t < 4; t++) {
+        int thread = t;
+        tasks.add(executor.submit(() -> {
+          for(int i = 0; i < 25000; i++) {
+            filter.put("present" + thread + "-" + i);
+            if(!filter.mightContain("present" + thread + "-" + i)) {
+              return false;
+            }
+          }
+          return true;
+        }));
+      }
+      for(Future<Boolean> task : tasks) {
+        assertTrue(task.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertTrue(filter.size() > 1);
+    for(int t = 0; t < 4; t++) {
+      for(int i = 0; i < 25000; i++) {
+        assertTrue(filter.mightContain("present" + t + "-" + i));
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package com.weaverplatform.nifi.util;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdGeneratorTest {
+
+  private static final int IDS_PER_THREAD = 200000;
+
+  @Test
+  public void testGeneratorsAreFound() {
+    List<String> names = Arrays.asList(IdGenerators.names());
+    assertTrue(names.contains(RandomIdGenerator.NAME));
+    assertTrue(names.contains(TimeOrderedIdGenerator.NAME));
+    assertTrue(names.contains(HashIdGenerator.NAME));
+  }
+
+  @Test
+  public void testTimeOrderedIdsIncrease() {
+    IdGenerator generator = new TimeOrderedIdGenerator();
+
+    String previous = generator.generate(null);
+    for(int i = 0; i < 100000; i++) {
+      String id = generator.generate(null);
+      assertTrue(previous + " should sort before " + id, previous.compareTo(id) < 0);
+      assertEquals(7, UUID.fromString(id).version());
+      previous = id;
+    }
+  }
+
+  @Test
+  public void testHashIdsAreDeterministic() {
+    IdGenerator generator = new HashIdGenerator();
+
+    assertEquals(generator.generate("a\u0000rdf:type\u0000b\u0000source"), generator.generate("a\u0000rdf:type\u0000b\u0000source"));
+    assertNotEquals(generator.generate("a\u0000rdf:type\u0000b\u0000source"), generator.generate("a\u0000rdf:type\u0000c\u0000source"));
+  }
+
+  @Test
+  public void testIdsAreUnique() throws Exception {
+    for(IdGenerator generator : Arrays.asList(new RandomIdGenerator(), new TimeOrderedIdGenerator())) {
+      Set<String> ids = new HashSet<>();
+      for(List<String> threadIds : generate(generator, 4, 50000)) {
+        ids.addAll(threadIds);
+      }
+      assertEquals(generator.getName(), 4 * 50000, ids.size());
+    }
+  }
+
+  /**
+   * Ids per second of every generator and of UUID.randomUUID(), at 1 to 8
+   * threads.
+   */
+  @Test
+  @Category(Benchmark.class)
+  public void testGenerationTimePerThreadCount() throws Exception {
+
+    List<IdGenerator> generators = new ArrayList<>();
+    generators.add(new SecureRandomIdGenerator());
+    generators.add(new RandomIdGenerator());
+    generators.add(new TimeOrderedIdGenerator());
+    generators.add(new HashIdGenerator());
+
+    for(IdGenerator generator : generators) {
+
+      // Warm up
+      generate(generator, 1, IDS_PER_THREAD);
+
+      for(int threads : new int[]{1, 2, 4, 8}) {
+        long start = System.nanoTime();
+        generate(generator, threads, IDS_PER_THREAD);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(String.format("%-14s %d threads: %7.1f ns per id per thread, %5.2f M ids/s",
+            generator.getName(), threads,
+            (double) elapsed / IDS_PER_THREAD,
+            threads * (double) IDS_PER_THREAD / elapsed * 1000));
+      }
+    }
+  }
+
+  private static List<List<String>> generate(IdGenerator generator, int threads, int count) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<List<String>>> tasks = new ArrayList<>();
+      for(int t = 0; t < threads; t++) {
+        int thread = t;
+        tasks.add(executor.submit((Callable<List<String>>) () -> {
+          List<String> ids = new ArrayList<>(count);
+          for(int i = 0; i < count; i++) {
+            ids.add(generator.generate("content" + thread + "-" + i));
+          }
+          return ids;
+        }));
+      }
+      List<List<String>> ids = new ArrayList<>();
+      for(Future<List<String>> task : tasks) {
+        ids.add(task.get());
+      }
+      return ids;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * What EntityProcessor used before, to compare with.
+   */
+  private static class SecureRandomIdGenerator implements IdGenerator {
+
+    @Override
+    public String getName() {
+      return "UUID.random";
+    }
+
+    @Override
+    public String generate(String content) {
+      return UUID.randomUUID().toString();
+    }
+
+    @Override
+    public boolean isDeterministic() {
+      return false;
+    }
+  }
+}
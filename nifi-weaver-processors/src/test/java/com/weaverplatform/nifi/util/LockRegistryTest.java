@@ -0,0 +1,61 @@
+package com.weaverplatform.nifi.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LockRegistryTest {
+
+  @Test
+  public void testConcurrentRequestsCreateOnce() throws Exception {
+
+    LockRegistry locks = new LockRegistry();
+    String hash = UUID.randomUUID().toString();
+    AtomicInteger created = new AtomicInteger();
+
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    List<Future<Void>> tasks = new ArrayList<>();
+    for(int i = 0; i < 64; i++) {
+      tasks.add(executor.submit((Callable<Void>) () -> {
+        if(!locks.request("created", hash)) {
+          created.incrementAndGet();
+          Thread.sleep(5);
+          locks.release("created", hash);
+        }
+        return null;
+      }));
+    }
+    for(Future<Void> task : tasks) {
+      task.get();
+    }
+    executor.shutdown();
+
+    assertEquals(1, created.get());
+  }
+
+  @Test
+  public void testCancelledRequestCanBeRetried() throws Exception {
+
+    LockRegistry locks = new LockRegistry();
+    String hash = UUID.randomUUID().toString();
+
+    assertFalse(locks.request("created", hash));
+    locks.cancel("created", hash);
+
+    assertFalse(locks.request("created", hash));
+    locks.release("created", hash);
+
+    assertTrue(locks.request("created", hash));
+  }
+}
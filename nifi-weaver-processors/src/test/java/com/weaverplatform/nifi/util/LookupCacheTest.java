@@ -0,0 +1,91 @@
+package com.weaverplatform.nifi.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LookupCacheTest {
+
+  @Test
+  public void testInvalidate() {
+    LookupCache cache = new LookupCache(100, 60);
+
+    cache.put("rdf:type", "b", Arrays.asList("a", "c"));
+    cache.put("rdf:type", "d", Collections.emptyList());
+    assertEquals(Arrays.asList("a", "c"), cache.get("rdf:type", "b"));
+    assertEquals(Collections.emptyList(), cache.get("rdf:type", "d"));
+    assertNull(cache.get("rdf:label", "b"));
+
+    // A new property with this predicate and object
+    cache.invalidate("rdf:type", "b");
+    assertNull(cache.get("rdf:type", "b"));
+    assertEquals(Collections.emptyList(), cache.get("rdf:type", "d"));
+  }
+
+  @Test
+  public void testInvalidatedWhileQuerying() {
+    LookupCache cache = new LookupCache(100, 60);
+
+    // A property is written while the query runs
+    long stamp = cache.stamp();
+    cache.invalidate("rdf:type", "b");
+    cache.putIfCurrent("rdf:type", "b", Collections.emptyList(), stamp);
+    assertNull(cache.get("rdf:type", "b"));
+
+    // Other answers and later queries are stored
+    cache.putIfCurrent("rdf:type", "d", Arrays.asList("c"), stamp);
+    assertEquals(Arrays.asList("c"), cache.get("rdf:type", "d"));
+    cache.putIfCurrent("rdf:type", "b", Arrays.asList("a"), cache.stamp());
+    assertEquals(Arrays.asList("a"), cache.get("rdf:type", "b"));
+
+    // Nothing queried before a clear is stored after it
+    stamp = cache.stamp();
+    cache.clear();
+    cache.putIfCurrent("rdf:type", "d", Arrays.asList("c"), stamp);
+    assertNull(cache.get("rdf:type", "d"));
+  }
+
+  @Test
+  public void testForgottenInvalidationsCount() {
+    LookupCache cache = new LookupCache(10, 60);
+
+    long stamp = cache.stamp();
+    for(int i = 0; i < 1000; i++) {
+      cache.invalidate("rdf:type", "object" + i);
+    }
+    cache.putIfCurrent("rdf:type", "object0", Arrays.asList("a"), stamp);
+    assertNull(cache.get("rdf:type", "object0"));
+  }
+
+  @Test
+  public void testExpires() throws InterruptedException {
+    LookupCache cache = new LookupCache(100, 1);
+
+    cache.put("rdf:type", "b", Arrays.asList("a"));
+    assertEquals(Arrays.asList("a"), cache.get("rdf:type", "b"));
+
+    Thread.sleep(1100);
+    assertNull(cache.get("rdf:type", "b"));
+  }
+
+  @Test
+  public void testBounded() {
+    LookupCache cache = new LookupCache(10, 60);
+
+    for(int i = 0; i < 1000; i++) {
+      cache.put("rdf:type", "object" + i, Arrays.asList("subject" + i));
+    }
+    int kept = 0;
+    for(int i = 0; i < 1000; i++) {
+      if(cache.get("rdf:type", "object" + i) != null) {
+        kept++;
+      }
+    }
+    assertTrue(kept > 0 && kept <= 10);
+  }
+}
@@ -0,0 +1,232 @@
+package com.weaverplatform.nifi.util;
+
+import com.weaverplatform.nifi.individual.CreateEntity;
+import com.weaverplatform.nifi.individual.CreateIndividualProperty;
+import com.weaverplatform.nifi.individual.PropertyProcessor;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.distributed.cache.client.Deserializer;
+import org.apache.nifi.distributed.cache.client.DistributedMapCacheClient;
+import org.apache.nifi.distributed.cache.client.Serializer;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessorConfigTest {
+
+  private static final int FLOWFILES = 1000000;
+
+  private TestRunner testRunner;
+  private MockFlowFile flowFile;
+
+  @Before
+  public void init() {
+    testRunner = TestRunners.newTestRunner(CreateEntity.class);
+    testRunner.setProperty(CreateEntity.INDIVIDUAL_ATTRIBUTE, "id");
+    testRunner.setProperty(CreateEntity.NAME_STATIC, "Afsluitboom");
+    testRunner.setProperty(CreateEntity.COLLECTION_LIST, "properties, annotations ,views");
+    testRunner.setProperty(CreateEntity.DEFERRED_LINKING, "true");
+
+    flowFile = new MockFlowFile(1);
+    Map<String, String> attributes = new HashMap<>();
+    attributes.put("id", "a");
+    flowFile.putAttributes(attributes);
+  }
+
+  @Test
+  public void testCompiledValues() {
+    ProcessorConfig config = ProcessorConfig.compile(testRunner.getProcessContext());
+
+    assertEquals("a", config.valueFromOptions(flowFile, CreateEntity.INDIVIDUAL_ATTRIBUTE, CreateEntity.INDIVIDUAL_STATIC, null));
+    assertEquals("Afsluitboom", config.valueFromOptions(flowFile, CreateEntity.NAME_ATTRIBUTE, CreateEntity.NAME_STATIC, "Unnamed"));
+    assertEquals("unset", config.valueFromOptions(flowFile, CreateEntity.SOURCE_ATTRIBUTE, CreateEntity.SOURCE_STATIC, "unset"));
+
+    assertEquals(Arrays.asList("properties", "annotations", "views"), config.asList(CreateEntity.COLLECTION_LIST));
+    assertEquals(Collections.emptyList(), config.asList(CreateEntity.NAME_PREFIX));
+
+    assertTrue(config.asBoolean(CreateEntity.DEFERRED_LINKING, false));
+    assertFalse(config.isSet(CreateEntity.NAME_PREFIX));
+    assertNull(config.get(CreateEntity.NAME_PREFIX));
+
+    // Defaults count as set
+    assertEquals(IdGenerators.DEFAULT, config.get(CreateEntity.ID_GENERATOR));
+    assertEquals(Integer.valueOf(1), config.asInteger(CreateEntity.BATCH_SIZE));
+  }
+
+  @Test
+  public void testCompiledValuesMatchContext() {
+    ProcessContext context = testRunner.getProcessContext();
+    ProcessorConfig config = ProcessorConfig.compile(context);
+
+    for(PropertyDescriptor[] options : new PropertyDescriptor[][]{
+        {CreateEntity.INDIVIDUAL_ATTRIBUTE, CreateEntity.INDIVIDUAL_STATIC},
+        {CreateEntity.NAME_ATTRIBUTE, CreateEntity.NAME_STATIC},
+        {CreateEntity.SOURCE_ATTRIBUTE, CreateEntity.SOURCE_STATIC}}) {
+      assertEquals(options[0].getName(),
+          valueFromContext(context, flowFile, options[0], options[1], "fallback"),
+          config.valueFromOptions(flowFile, options[0], options[1], "fallback"));
+    }
+
+    for(PropertyDescriptor descriptor : Arrays.asList(CreateEntity.NAME_PREFIX, CreateEntity.COLLECTION_LIST,
+        CreateEntity.DEFERRED_LINKING, CreateEntity.ID_GENERATOR, CreateEntity.BATCH_SIZE)) {
+      assertEquals(descriptor.getName(), context.getProperty(descriptor).isSet(), config.isSet(descriptor));
+      assertEquals(descriptor.getName(), context.getProperty(descriptor).getValue(), config.get(descriptor));
+    }
+
+    List<String> collections = new ArrayList<>();
+    for(String collection : context.getProperty(CreateEntity.COLLECTION_LIST).getValue().split(",")) {
+      collections.add(collection.trim());
+    }
+    assertEquals(collections, config.asList(CreateEntity.COLLECTION_LIST));
+    assertEquals(context.getProperty(CreateEntity.DEFERRED_LINKING).asBoolean(), config.asBoolean(CreateEntity.DEFERRED_LINKING, false));
+    assertEquals(context.getProperty(CreateEntity.BATCH_SIZE).asInteger(), config.asInteger(CreateEntity.BATCH_SIZE));
+  }
+
+  @Test
+  public void testCompiledControllerService() throws InitializationException {
+    TestRunner propertyRunner = TestRunners.newTestRunner(CreateIndividualProperty.class);
+    ProcessorConfig unset = ProcessorConfig.compile(propertyRunner.getProcessContext());
+    assertNull(unset.asControllerService(PropertyProcessor.DISTRIBUTED_CACHE, DistributedMapCacheClient.class));
+
+    NoCache cache = new NoCache();
+    propertyRunner.addControllerService("cache", cache);
+    propertyRunner.enableControllerService(cache);
+    propertyRunner.setProperty(PropertyProcessor.DISTRIBUTED_CACHE, "cache");
+
+    ProcessContext context = propertyRunner.getProcessContext();
+    ProcessorConfig config = ProcessorConfig.compile(context);
+    assertSame(context.getProperty(PropertyProcessor.DISTRIBUTED_CACHE).asControllerService(DistributedMapCacheClient.class),
+        config.asControllerService(PropertyProcessor.DISTRIBUTED_CACHE, DistributedMapCacheClient.class));
+  }
+
+  /**
+   * Reading the properties from the context for every FlowFile against
+   * reading them once compiled.
+   */
+  @Test
+  @Category(Benchmark.class)
+  public void testOverheadPerFlowFile() {
+    ProcessContext context = testRunner.getProcessContext();
+
+    for(int round = 0; round < 3; round++) {
+      long start = System.nanoTime();
+      int length = 0;
+      for(int i = 0; i < FLOWFILES; i++) {
+        length += fromContext(context, flowFile);
+      }
+      long fromContext = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      ProcessorConfig config = ProcessorConfig.compile(context);
+      for(int i = 0; i < FLOWFILES; i++) {
+        length -= fromConfig(config, flowFile);
+      }
+      long fromConfig = System.nanoTime() - start;
+
+      // Keeps the reads from being optimized away
+      assertEquals(0, length);
+      System.out.println(String.format("round %d: properties read per FlowFile %6.1f ns, compiled once %6.1f ns",
+          round, (double) fromContext / FLOWFILES, (double) fromConfig / FLOWFILES));
+    }
+  }
+
+  /**
+   * What a CreateEntity trigger read before.
+   */
+  private static int fromContext(ProcessContext context, FlowFile flowFile) {
+    String id = valueFromContext(context, flowFile, CreateEntity.INDIVIDUAL_ATTRIBUTE, CreateEntity.INDIVIDUAL_STATIC, null);
+    String name = valueFromContext(context, flowFile, CreateEntity.NAME_ATTRIBUTE, CreateEntity.NAME_STATIC, "Unnamed");
+    if(context.getProperty(CreateEntity.NAME_PREFIX).isSet()) {
+      name = context.getProperty(CreateEntity.NAME_PREFIX).getValue() + name;
+    }
+    int collections = 0;
+    if(context.getProperty(CreateEntity.COLLECTION_LIST).isSet()) {
+      for(String collection : context.getProperty(CreateEntity.COLLECTION_LIST).getValue().split(",")) {
+        collections += collection.trim().length();
+      }
+    }
+    boolean deferred = context.getProperty(CreateEntity.DEFERRED_LINKING).asBoolean();
+    return id.length() + name.length() + collections + (deferred ? 1 : 0);
+  }
+
+  private static int fromConfig(ProcessorConfig config, FlowFile flowFile) {
+    String id = config.valueFromOptions(flowFile, CreateEntity.INDIVIDUAL_ATTRIBUTE, CreateEntity.INDIVIDUAL_STATIC, null);
+    String name = config.valueFromOptions(flowFile, CreateEntity.NAME_ATTRIBUTE, CreateEntity.NAME_STATIC, "Unnamed");
+    if(config.isSet(CreateEntity.NAME_PREFIX)) {
+      name = config.get(CreateEntity.NAME_PREFIX) + name;
+    }
+    int collections = 0;
+    for(String collection : config.asList(CreateEntity.COLLECTION_LIST)) {
+      collections += collection.length();
+    }
+    boolean deferred = config.asBoolean(CreateEntity.DEFERRED_LINKING, false);
+    return id.length() + name.length() + collections + (deferred ? 1 : 0);
+  }
+
+  private static String valueFromContext(ProcessContext context, FlowFile flowFile, PropertyDescriptor attributeValue, PropertyDescriptor staticValue, String fallback) {
+    if(context.getProperty(attributeValue).isSet()) {
+      return flowFile.getAttribute(context.getProperty(attributeValue).getValue());
+    } else if(context.getProperty(staticValue).isSet()) {
+      return context.getProperty(staticValue).getValue();
+    }
+    return fallback;
+  }
+
+  /**
+   * A cache client that holds nothing, only its identity is compared.
+   */
+  private static class NoCache extends AbstractControllerService implements DistributedMapCacheClient {
+
+    @Override
+    public <K, V> boolean putIfAbsent(K key, V value, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+      return true;
+    }
+
+    @Override
+    public <K, V> V getAndPutIfAbsent(K key, V value, Serializer<K> keySerializer, Serializer<V> valueSerializer, Deserializer<V> valueDeserializer) {
+      return null;
+    }
+
+    @Override
+    public <K> boolean containsKey(K key, Serializer<K> keySerializer) {
+      return false;
+    }
+
+    @Override
+    public <K, V> void put(K key, V value, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+    }
+
+    @Override
+    public <K, V> V get(K key, Serializer<K> keySerializer, Deserializer<V> valueDeserializer) {
+      return null;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public <K> boolean remove(K key, Serializer<K> keySerializer) {
+      return false;
+    }
+  }
+}